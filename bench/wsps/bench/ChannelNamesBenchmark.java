@@ -0,0 +1,45 @@
+package wsps.bench;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import wsps.Channel;
+
+/**
+ * Channel.parseChannelNames and Channel.stringifyChannelNames on large channel lists.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ChannelNamesBenchmark {
+    @Param({"10", "1000", "100000"})
+    public int size;
+
+    @Param({"0", "10"})
+    public int escapedPercent;
+
+    private ArrayList<String> names;
+    private String list;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        this.names = new ArrayList<>(this.size);
+        for(int i = 0; i < this.size; i++) {
+            this.names.add(i % 100 < this.escapedPercent ? "stocks.a,b" + i : "stocks.ticker" + i);
+        }
+        this.list = Channel.stringifyChannelNames(this.names);
+    }
+
+    @Benchmark
+    public ArrayList<String> parse() {
+        return Channel.parseChannelNames(this.list);
+    }
+
+    @Benchmark
+    public String stringify() {
+        return Channel.stringifyChannelNames(this.names);
+    }
+}
@@ -0,0 +1,55 @@
+package wsps.bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import wsps.Data;
+import wsps.JObject;
+
+/**
+ * Data.toNetworkString and Data.fromDataString for each data type.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DataBenchmark {
+    @Param({"null", "integer", "float", "string", "json"})
+    public String type;
+
+    private String dataString;
+
+    private static final JObject JSON = () -> "{\"bid\":101.25,\"ask\":101.5,\"symbol\":\"WSPS\"}";
+
+    @Setup(Level.Trial)
+    public void setup() {
+        this.dataString = this.newData().toNetworkString();
+    }
+
+    private Data newData() {
+        switch(this.type) {
+            case "integer":
+                return new Data(1234567890123L);
+            case "float":
+                return new Data(101.25);
+            case "string":
+                return new Data("The quick brown fox jumps over the lazy dog");
+            case "json":
+                return new Data(JSON);
+            default:
+                return new Data();
+        }
+    }
+
+    @Benchmark
+    public String toNetworkString() {
+        //A new object each time, the network string is cached per object.
+        return this.newData().toNetworkString();
+    }
+
+    @Benchmark
+    public Data fromDataString() {
+        return Data.fromDataString(this.dataString);
+    }
+}
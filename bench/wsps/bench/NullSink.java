@@ -0,0 +1,46 @@
+package wsps.bench;
+
+import java.nio.ByteBuffer;
+import wsps.WebSocketClientWrapper;
+
+/**
+ * In-memory WebSocket connection, counts the sent messages and discards them.
+ */
+public class NullSink implements WebSocketClientWrapper {
+    private final boolean binary;
+    public long messages = 0;
+    public long bytes = 0;
+
+    public NullSink() {
+        this(false);
+    }
+
+    /**
+     * @param binary Whether the connection accepts binary messages.
+     */
+    public NullSink(boolean binary) {
+        this.binary = binary;
+    }
+
+    @Override
+    public void send(String msg) {
+        this.messages++;
+        this.bytes += msg.length();
+    }
+
+    @Override
+    public boolean supportsBinary() {
+        return this.binary;
+    }
+
+    @Override
+    public void send(ByteBuffer msg) {
+        this.messages++;
+        this.bytes += msg.remaining();
+    }
+
+    @Override
+    public Object getHandle() {
+        return this;
+    }
+}
@@ -0,0 +1,74 @@
+package wsps.bench;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import wsps.BinaryWriter;
+import wsps.Client;
+import wsps.Data;
+import wsps.Manager;
+
+/**
+ * Client.onNewMessage parsing of received messages. The published channels have one subscriber.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParseBenchmark {
+    private Client sender;
+    private Client receiver;
+    private ByteBuffer binaryPublish;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Manager.setWriterExecutor(Runnable::run);
+        this.receiver = new Client(new NullSink());
+        this.receiver.onNewMessage("sbench.parse,bench.parse2,bench.esc\\,aped");
+        this.sender = new Client(new NullSink(true));
+
+        BinaryWriter w = new BinaryWriter();
+        w.writeByte('p').writeVarint(1).writeString("bench.parse").writeByte(2);
+        new Data(42).writeBinary(w);
+        this.binaryPublish = w.toByteBuffer();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.sender.disconnect();
+        this.receiver.disconnect();
+    }
+
+    @Benchmark
+    public void publishInteger() {
+        this.sender.onNewMessage("p211:bench.parsei42");
+    }
+
+    @Benchmark
+    public void publishString() {
+        this.sender.onNewMessage("p211:bench.parsesHello, world!");
+    }
+
+    @Benchmark
+    public void publishTwoChannels() {
+        this.sender.onNewMessage("p224:bench.parse,bench.parse2f3.25");
+    }
+
+    @Benchmark
+    public void publishEscaped() {
+        this.sender.onNewMessage("p216:bench.esc\\,apedi7");
+    }
+
+    @Benchmark
+    public void publishUnknownChannel() {
+        this.sender.onNewMessage("p213:bench.nothingi1");
+    }
+
+    @Benchmark
+    public void publishBinary() {
+        //Defines the channel id each time, like the first message of a connection.
+        this.sender.onNewMessage(this.binaryPublish.duplicate());
+    }
+}
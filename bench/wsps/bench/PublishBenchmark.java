@@ -0,0 +1,66 @@
+package wsps.bench;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import wsps.Client;
+import wsps.Data;
+import wsps.Manager;
+import wsps.Range;
+
+/**
+ * Manager.publish fan-out to WebSocket clients subscribing one channel.
+ * The writer runs on the publishing thread, so a publish includes encoding and sending to every client.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PublishBenchmark {
+    @Param({"1", "100", "10000", "100000"})
+    public int subscribers;
+
+    @Param({"false", "true"})
+    public boolean binary;
+
+    private final ArrayList<Client> clients = new ArrayList<>();
+    private long value = 0;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Manager.setWriterExecutor(Runnable::run);
+        for(int i = 0; i < this.subscribers; i++) {
+            Client c = new Client(new NullSink(this.binary));
+            if(this.binary) {
+                c.onNewMessage("B");
+            }
+            c.onNewMessage("sbench.fanout");
+            this.clients.add(c);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        for(Client c : this.clients) {
+            c.disconnect();
+        }
+        this.clients.clear();
+    }
+
+    @Benchmark
+    public void publishLong() {
+        Manager.publish("bench.fanout", new Data(this.value++), null, Range.All);
+    }
+
+    @Benchmark
+    public void publishString() {
+        Manager.publish("bench.fanout", new Data("tick"), null, Range.All);
+    }
+
+    @Benchmark
+    public void publishServerOnly() {
+        Manager.publish("bench.fanout", new Data(this.value++), null, Range.ServerOnly);
+    }
+}
@@ -0,0 +1,69 @@
+package wsps.bench;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import wsps.Client;
+import wsps.Manager;
+
+/**
+ * Subscribing and unsubscribing while many clients are connected. Every first subscriber and last unsubscriber
+ * of a channel is announced to all clients.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SubscribeChurnBenchmark {
+    @Param({"100", "10000"})
+    public int clients;
+
+    private final ArrayList<Client> connected = new ArrayList<>();
+    private Client churner;
+    private int next = 0;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Manager.setWriterExecutor(Runnable::run);
+        for(int i = 0; i < this.clients; i++) {
+            Client c = new Client(new NullSink());
+            c.onNewMessage("sbench.shared");
+            this.connected.add(c);
+        }
+        this.churner = new Client(new NullSink());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        for(Client c : this.connected) {
+            c.disconnect();
+        }
+        this.connected.clear();
+        this.churner.disconnect();
+    }
+
+    @Benchmark
+    public void subscribeShared() {
+        //Channel already has subscribers, nothing to announce.
+        this.churner.onSubscribe("bench.shared");
+        this.churner.onUnsubscribe("bench.shared");
+    }
+
+    @Benchmark
+    public void subscribeNew() {
+        //First subscriber and last unsubscriber, both announced to all clients.
+        String channel = "bench.churn." + (this.next++ & 1023);
+        this.churner.onSubscribe(channel);
+        this.churner.onUnsubscribe(channel);
+    }
+
+    @Benchmark
+    public void connect() {
+        //New client gets the channel snapshot, then leaves again.
+        Client c = new Client(new NullSink());
+        c.onNewMessage("sbench.shared");
+        c.disconnect();
+    }
+}
@@ -0,0 +1,234 @@
+package wsps.sim;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import wsps.Client;
+import wsps.Histogram;
+import wsps.Manager;
+
+/**
+ * Load generator driving many virtual clients through Client.onNewMessage without a WebSocket stack.
+ * Virtual clients subscribe random channels, publish the current time at random channels, change subscriptions
+ * and reconnect. Every second the throughput and delivery latency are reported, at the end the totals and
+ * the heap per connection.
+ *
+ * Usage: java wsps.sim.LoadSimulator [option=value ...]
+ *   clients=100000      connected virtual clients
+ *   channels=1000       channels to choose from
+ *   subscriptions=5     channels each client subscribes on connect
+ *   rate=20000          operations per second of all drivers
+ *   publish=90          percentage of publish operations
+ *   subscribe=4         percentage of subscribe/unsubscribe operations (half each)
+ *   churn=6             percentage of disconnect + reconnect operations
+ *   duration=30         seconds to run
+ *   drivers=4           threads sending messages
+ *   writers=4           threads sending frames to the virtual clients
+ */
+public class LoadSimulator {
+    protected int clients = 100000;
+    protected int channels = 1000;
+    protected int subscriptions = 5;
+    protected int rate = 20000;
+    protected int publish = 90;
+    protected int subscribe = 4;
+    protected int churn = 6;
+    protected int duration = 30;
+    protected int drivers = 4;
+    protected int writers = 4;
+
+    protected final SimStats stats = new SimStats();
+    protected AtomicReferenceArray<Client> connected;
+    private volatile boolean running = true;
+
+    public static void main(String[] args) throws Exception {
+        LoadSimulator sim = new LoadSimulator();
+        for(String arg : args) {
+            int eq = arg.indexOf('=');
+            if(eq < 0) {
+                throw new IllegalArgumentException("Expected option=value: " + arg);
+            }
+            sim.set(arg.substring(0, eq), Integer.parseInt(arg.substring(eq + 1)));
+        }
+
+        sim.run();
+    }
+
+    /**
+     * Sets an option. (See class documentation)
+     * @param option Option name.
+     * @param value Value.
+     */
+    public void set(String option, int value) {
+        switch(option) {
+            case "clients": this.clients = value; break;
+            case "channels": this.channels = value; break;
+            case "subscriptions": this.subscriptions = value; break;
+            case "rate": this.rate = value; break;
+            case "publish": this.publish = value; break;
+            case "subscribe": this.subscribe = value; break;
+            case "churn": this.churn = value; break;
+            case "duration": this.duration = value; break;
+            case "drivers": this.drivers = value; break;
+            case "writers": this.writers = value; break;
+            default: throw new IllegalArgumentException("Unknown option: " + option);
+        }
+    }
+
+    /**
+     * Connects the virtual clients, drives the load for the configured duration and prints the reports.
+     * @throws InterruptedException If interrupted while running.
+     */
+    public void run() throws InterruptedException {
+        ExecutorService writerPool = Executors.newFixedThreadPool(this.writers, r -> {
+            Thread t = new Thread(r, "sim-writer");
+            t.setDaemon(true);
+            return t;
+        });
+        Manager.setWriterExecutor(writerPool);
+
+        long heapBefore = usedHeap();
+        this.connected = new AtomicReferenceArray<>(this.clients);
+        for(int i = 0; i < this.clients; i++) {
+            this.connected.set(i, this.connect(i));
+        }
+        long heapAfter = usedHeap();
+        System.out.printf("connected %d clients, %.0f bytes heap per connection%n",
+                this.clients, (double)(heapAfter - heapBefore) / this.clients);
+
+        Thread[] threads = new Thread[this.drivers];
+        for(int i = 0; i < this.drivers; i++) {
+            threads[i] = new Thread(this::drive, "sim-driver-" + i);
+            threads[i].start();
+        }
+
+        long start = System.nanoTime();
+        long lastPublished = 0;
+        long lastDelivered = 0;
+        for(int s = 1; s <= this.duration; s++) {
+            Thread.sleep(1000);
+            long published = this.stats.published.sum();
+            long delivered = this.stats.delivered.sum();
+            System.out.printf("%4ds  publish/s %8d  deliver/s %10d  %s%n", s,
+                    published - lastPublished, delivered - lastDelivered, latency(this.stats.intervalLatency));
+            this.stats.intervalLatency.reset();
+            lastPublished = published;
+            lastDelivered = delivered;
+        }
+
+        this.running = false;
+        for(Thread t : threads) {
+            t.join();
+        }
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("total  publish/s %8.0f  deliver/s %10.0f  %s%n",
+                this.stats.published.sum() / seconds, this.stats.delivered.sum() / seconds, latency(this.stats.totalLatency));
+        System.out.printf("       subscribes %d  unsubscribes %d  disconnects %d  reconnects %d  received %d bytes  dropped %d%n",
+                this.stats.subscribes.sum(), this.stats.unsubscribes.sum(), this.stats.disconnects.sum(),
+                this.stats.connects.sum(), this.stats.receivedBytes.sum(), this.droppedFrames());
+
+        for(int i = 0; i < this.clients; i++) {
+            this.connected.get(i).disconnect();
+        }
+        writerPool.shutdown();
+        writerPool.awaitTermination(10, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Connects a virtual client and subscribes its random channels.
+     * @param id Connection number.
+     * @return Connected client.
+     */
+    protected Client connect(int id) {
+        Client c = new Client(new VirtualConnection(this.stats, id));
+        StringBuilder sb = new StringBuilder("s");
+        for(int i = 0; i < this.subscriptions; i++) {
+            if(i > 0) {
+                sb.append(',');
+            }
+            sb.append(this.randomChannel());
+        }
+        if(this.subscriptions > 0) {
+            c.onNewMessage(sb.toString());
+        }
+        return c;
+    }
+
+    /**
+     * Sends random operations of random clients until stopped, paced to the driver's share of the rate.
+     */
+    private void drive() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long interval = (long)(1e9 * this.drivers / Math.max(1, this.rate));
+        long next = System.nanoTime();
+        while(this.running) {
+            long now = System.nanoTime();
+            if(now < next) {
+                long wait = next - now;
+                if(wait > 100000) {
+                    try {
+                        TimeUnit.NANOSECONDS.sleep(wait);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                continue;
+            }
+            next += interval;
+
+            int id = random.nextInt(this.clients);
+            Client c = this.connected.get(id);
+            int op = random.nextInt(100);
+            if(op < this.publish) {
+                String channel = this.randomChannel();
+                c.onNewMessage("p2" + channel.length() + ":" + channel + "i" + System.nanoTime());
+                this.stats.published.increment();
+            } else if(op < this.publish + this.subscribe) {
+                if(random.nextBoolean()) {
+                    c.onNewMessage("s" + this.randomChannel());
+                    this.stats.subscribes.increment();
+                } else {
+                    c.onNewMessage("u" + this.randomChannel());
+                    this.stats.unsubscribes.increment();
+                }
+            } else if(op < this.publish + this.subscribe + this.churn) {
+                Client fresh = this.connect(id);
+                if(this.connected.compareAndSet(id, c, fresh)) {
+                    c.disconnect();
+                    this.stats.disconnects.increment();
+                    this.stats.connects.increment();
+                } else {
+                    fresh.disconnect();
+                }
+            }
+        }
+    }
+
+    private String randomChannel() {
+        return "sim." + ThreadLocalRandom.current().nextInt(this.channels);
+    }
+
+    private long droppedFrames() {
+        long dropped = 0;
+        for(int i = 0; i < this.clients; i++) {
+            dropped += this.connected.get(i).getDroppedCount();
+        }
+        return dropped;
+    }
+
+    private static String latency(Histogram h) {
+        return String.format("latency mean %7.1fus  p50 <%7.1fus  p99 <%8.1fus  p99.9 <%8.1fus",
+                h.getMean() / 1e3, h.getQuantile(0.5) / 1e3, h.getQuantile(0.99) / 1e3, h.getQuantile(0.999) / 1e3);
+    }
+
+    private static long usedHeap() {
+        Runtime rt = Runtime.getRuntime();
+        for(int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return rt.totalMemory() - rt.freeMemory();
+    }
+}
@@ -0,0 +1,60 @@
+package wsps.sim;
+
+import java.util.concurrent.atomic.LongAdder;
+import wsps.Histogram;
+
+/**
+ * Counters of a simulation run. Delivery latency is recorded for the current report interval and the whole run.
+ */
+public class SimStats {
+    public final LongAdder published = new LongAdder();
+    public final LongAdder delivered = new LongAdder();
+    public final LongAdder receivedBytes = new LongAdder();
+    public final LongAdder subscribes = new LongAdder();
+    public final LongAdder unsubscribes = new LongAdder();
+    public final LongAdder connects = new LongAdder();
+    public final LongAdder disconnects = new LongAdder();
+    public final Histogram intervalLatency = new Histogram();
+    public final Histogram totalLatency = new Histogram();
+
+    /**
+     * Counts a message received by a virtual client and records the latency of the contained publishes.
+     * @param msg Text message sent by the server.
+     */
+    public void onReceived(String msg) {
+        this.receivedBytes.add(msg.length());
+        if(msg.isEmpty()) {
+            return;
+        }
+
+        if(msg.charAt(0) == 'p') {
+            this.onPublish(msg, 0, msg.length());
+        } else if(msg.charAt(0) == 'b') {
+            //Batch: (length ":" frame)*
+            int i = 1;
+            while(i < msg.length()) {
+                int colon = msg.indexOf(':', i);
+                int len = Integer.parseInt(msg.substring(i, colon));
+                if(msg.charAt(colon + 1) == 'p') {
+                    this.onPublish(msg, colon + 1, colon + 1 + len);
+                }
+                i = colon + 1 + len;
+            }
+        }
+    }
+
+    /**
+     * Records the latency of a publish frame carrying the publish time. ("p" range length ":" channel "i" nanos)
+     */
+    private void onPublish(String msg, int start, int end) {
+        int colon = msg.indexOf(':', start);
+        int len = Integer.parseInt(msg.substring(start + 2, colon));
+        int data = colon + 1 + len;
+        if(data < end && msg.charAt(data) == 'i') {
+            long latency = System.nanoTime() - Long.parseLong(msg.substring(data + 1, end));
+            this.intervalLatency.record(latency);
+            this.totalLatency.record(latency);
+        }
+        this.delivered.increment();
+    }
+}
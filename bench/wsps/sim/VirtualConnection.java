@@ -0,0 +1,31 @@
+package wsps.sim;
+
+import wsps.WebSocketClientWrapper;
+
+/**
+ * In-memory stand-in of a WebSocket connection, hands everything the server sends to the simulation counters.
+ */
+public class VirtualConnection implements WebSocketClientWrapper {
+    private final SimStats stats;
+    private final int id;
+
+    /**
+     * Initializes a new virtual connection.
+     * @param stats Counters to report received messages to.
+     * @param id Connection number.
+     */
+    public VirtualConnection(SimStats stats, int id) {
+        this.stats = stats;
+        this.id = id;
+    }
+
+    @Override
+    public void send(String msg) {
+        this.stats.onReceived(msg);
+    }
+
+    @Override
+    public Object getHandle() {
+        return this.id;
+    }
+}
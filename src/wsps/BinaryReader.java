@@ -0,0 +1,131 @@
+package wsps;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads the binary WSPS protocol written by BinaryWriter.
+ * Reading past the end throws BufferUnderflowException, malformed values throw IllegalArgumentException.
+ */
+public class BinaryReader {
+    protected final ByteBuffer buf;
+
+    /**
+     * Initializes a new reader starting at the current position of the buffer.
+     * @param buf Received message. (Position is advanced while reading)
+     */
+    public BinaryReader(ByteBuffer buf) {
+        this.buf = buf;
+    }
+
+    public boolean hasRemaining() {
+        return buf.hasRemaining();
+    }
+
+    public int readByte() {
+        return buf.get() & 0xFF;
+    }
+
+    /**
+     * Reads an unsigned varint.
+     * @return Value.
+     */
+    public long readVarint() {
+        long value = 0;
+        for(int shift = 0; shift < 64; shift += 7) {
+            int b = buf.get();
+            value |= (long)(b & 0x7F) << shift;
+            if((b & 0x80) == 0) {
+                return value;
+            }
+        }
+
+        throw new IllegalArgumentException("Varint too long.");
+    }
+
+    /**
+     * Reads an unsigned varint of at most 5 bytes, which must fit a non-negative int.
+     * @return Value.
+     */
+    public int readVarint32() {
+        long value = 0;
+        for(int shift = 0; shift < 35; shift += 7) {
+            int b = buf.get();
+            value |= (long)(b & 0x7F) << shift;
+            if((b & 0x80) == 0) {
+                if(value > Integer.MAX_VALUE) {
+                    throw new IllegalArgumentException("Varint exceeds int.");
+                }
+                return (int)value;
+            }
+        }
+
+        throw new IllegalArgumentException("Varint too long.");
+    }
+
+    /**
+     * Reads a varint length and checks it against the remaining bytes.
+     * @return Length.
+     */
+    public int readLength() {
+        int len = readVarint32();
+        if(len > buf.remaining()) {
+            throw new IllegalArgumentException("Length exceeds message.");
+        }
+
+        return len;
+    }
+
+    public long readInt64() {
+        int at = advance(8);
+        long value = 0;
+        for(int i = 7; i >= 0; i--) {
+            value = (value << 8) | (buf.get(at + i) & 0xFF);
+        }
+        return value;
+    }
+
+    public double readFloat64() {
+        return Double.longBitsToDouble(readInt64());
+    }
+
+    /**
+     * Reads a string written by BinaryWriter.writeString.
+     * @return String.
+     */
+    public String readString() {
+        int len = readLength();
+        String str;
+        if(buf.hasArray()) {
+            str = new String(buf.array(), buf.arrayOffset() + buf.position(), len, StandardCharsets.UTF_8);
+            buf.position(buf.position() + len);
+        } else {
+            byte[] bytes = new byte[len];
+            buf.get(bytes);
+            str = new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        return str;
+    }
+
+    /**
+     * Reads bytes written by BinaryWriter.writeBytes.
+     * @return Bytes.
+     */
+    public byte[] readBytes() {
+        byte[] bytes = new byte[readLength()];
+        buf.get(bytes);
+        return bytes;
+    }
+
+    private int advance(int len) {
+        if(buf.remaining() < len) {
+            throw new BufferUnderflowException();
+        }
+
+        int at = buf.position();
+        buf.position(at + len);
+        return at;
+    }
+}
@@ -0,0 +1,312 @@
+package wsps;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Growable byte buffer writing the binary WSPS protocol.
+ * Lengths are unsigned varints (7 bits per byte, least significant group first),
+ * numbers are fixed-width little-endian.
+ */
+public class BinaryWriter {
+    protected byte[] buf;
+    protected int pos = 0;
+
+    // Formats floats for writeDecimal, created on first use.
+    private StringBuilder scratch = null;
+    private Utf8Appender appender = null;
+
+    /**
+     * Initializes a new writer.
+     * @param capacity Initial capacity in bytes.
+     */
+    public BinaryWriter(int capacity) {
+        this.buf = new byte[Math.max(capacity, 16)];
+    }
+
+    public BinaryWriter() {
+        this(256);
+    }
+
+    /**
+     * Discards the written bytes to reuse the writer.
+     */
+    public void reset() {
+        this.pos = 0;
+    }
+
+    /**
+     * Returns the amount of written bytes.
+     * @return Written bytes.
+     */
+    public int size() {
+        return this.pos;
+    }
+
+    private void ensure(int more) {
+        if(pos + more > buf.length) {
+            buf = Arrays.copyOf(buf, Math.max(buf.length << 1, pos + more));
+        }
+    }
+
+    public BinaryWriter writeByte(int b) {
+        ensure(1);
+        buf[pos++] = (byte)b;
+        return this;
+    }
+
+    public BinaryWriter write(byte[] bytes) {
+        return write(bytes, 0, bytes.length);
+    }
+
+    public BinaryWriter write(byte[] bytes, int off, int len) {
+        ensure(len);
+        System.arraycopy(bytes, off, buf, pos, len);
+        pos += len;
+        return this;
+    }
+
+    /**
+     * Writes an unsigned varint.
+     * @param value Value. (Treated as unsigned)
+     * @return This writer.
+     */
+    public BinaryWriter writeVarint(long value) {
+        ensure(10);
+        while((value & ~0x7FL) != 0) {
+            buf[pos++] = (byte)((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buf[pos++] = (byte)value;
+        return this;
+    }
+
+    public BinaryWriter writeInt64(long value) {
+        ensure(8);
+        for(int i = 0; i < 8; i++) {
+            buf[pos++] = (byte)value;
+            value >>>= 8;
+        }
+        return this;
+    }
+
+    public BinaryWriter writeFloat64(double value) {
+        return writeInt64(Double.doubleToRawLongBits(value));
+    }
+
+    /**
+     * Writes the varint byte length followed by the UTF-8 bytes of the string.
+     * @param str String to write.
+     * @return This writer.
+     */
+    public BinaryWriter writeString(String str) {
+        byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+        writeVarint(bytes.length);
+        return write(bytes);
+    }
+
+    /**
+     * Writes the UTF-8 bytes of a string without length.
+     * @param str String to write.
+     * @return This writer.
+     */
+    public BinaryWriter writeUtf8(String str) {
+        int n = str.length();
+        ensure(n);
+        for(int i = 0; i < n; i++) {
+            char c = str.charAt(i);
+            if(c >= 0x80) {
+                //Not ASCII, encode the rest at once.
+                return write(str.substring(i).getBytes(StandardCharsets.UTF_8));
+            }
+            buf[pos++] = (byte)c;
+        }
+        return this;
+    }
+
+    /**
+     * Returns an appendable writing the UTF-8 bytes of the appended characters to this writer.
+     * Call endUtf8 when done, so a dangling surrogate is written as well.
+     * @return Appendable of this writer. (The same object on every call)
+     */
+    public Appendable utf8() {
+        Utf8Appender a = appender;
+        if(a == null) {
+            appender = a = new Utf8Appender();
+        }
+
+        a.high = 0;
+        return a;
+    }
+
+    /**
+     * Finishes writing by the utf8 appendable. (An unpaired high surrogate is written as "?", like String.getBytes)
+     * @return This writer.
+     */
+    public BinaryWriter endUtf8() {
+        if(appender != null && appender.high != 0) {
+            appender.high = 0;
+            writeByte('?');
+        }
+        return this;
+    }
+
+    private class Utf8Appender implements Appendable {
+        // High surrogate waiting for its low surrogate.
+        char high = 0;
+
+        @Override
+        public Appendable append(CharSequence csq) {
+            CharSequence str = csq != null ? csq : "null";
+            return append(str, 0, str.length());
+        }
+
+        @Override
+        public Appendable append(CharSequence csq, int start, int end) {
+            if(csq == null) {
+                return append("null", start, end);
+            }
+
+            ensure(end - start);
+            for(int i = start; i < end; i++) {
+                char c = csq.charAt(i);
+                if(c < 0x80 && high == 0) {
+                    if(pos == buf.length) {
+                        ensure(end - i);
+                    }
+                    buf[pos++] = (byte)c;
+                } else {
+                    append(c);
+                }
+            }
+            return this;
+        }
+
+        @Override
+        public Appendable append(char c) {
+            if(high != 0) {
+                char h = high;
+                high = 0;
+                if(Character.isLowSurrogate(c)) {
+                    int cp = Character.toCodePoint(h, c);
+                    ensure(4);
+                    buf[pos++] = (byte)(0xF0 | (cp >> 18));
+                    buf[pos++] = (byte)(0x80 | ((cp >> 12) & 0x3F));
+                    buf[pos++] = (byte)(0x80 | ((cp >> 6) & 0x3F));
+                    buf[pos++] = (byte)(0x80 | (cp & 0x3F));
+                    return this;
+                }
+                writeByte('?');
+            }
+
+            if(c < 0x80) {
+                writeByte(c);
+            } else if(c < 0x800) {
+                ensure(2);
+                buf[pos++] = (byte)(0xC0 | (c >> 6));
+                buf[pos++] = (byte)(0x80 | (c & 0x3F));
+            } else if(Character.isHighSurrogate(c)) {
+                high = c;
+            } else if(Character.isLowSurrogate(c)) {
+                writeByte('?');
+            } else {
+                ensure(3);
+                buf[pos++] = (byte)(0xE0 | (c >> 12));
+                buf[pos++] = (byte)(0x80 | ((c >> 6) & 0x3F));
+                buf[pos++] = (byte)(0x80 | (c & 0x3F));
+            }
+            return this;
+        }
+    }
+
+    /**
+     * Writes an integer as ASCII decimal digits, like Long.toString without creating a string.
+     * @param value Value.
+     * @return This writer.
+     */
+    public BinaryWriter writeDecimal(long value) {
+        ensure(20);
+        if(value < 0) {
+            buf[pos++] = '-';
+        } else {
+            //Digits are produced negative, so Long.MIN_VALUE fits.
+            value = -value;
+        }
+
+        int digits = 1;
+        for(long v = value / 10; v != 0; v /= 10) {
+            digits++;
+        }
+
+        int end = pos + digits;
+        for(int i = end - 1; i >= pos; i--) {
+            buf[i] = (byte)('0' - (value % 10));
+            value /= 10;
+        }
+        pos = end;
+        return this;
+    }
+
+    /**
+     * Writes a float as ASCII decimal, formatted like Double.toString.
+     * (Reuses one buffer of this writer instead of creating a string)
+     * @param value Value.
+     * @return This writer.
+     */
+    public BinaryWriter writeDecimal(double value) {
+        StringBuilder sb = scratch;
+        if(sb == null) {
+            scratch = sb = new StringBuilder(32);
+        }
+
+        sb.setLength(0);
+        sb.append(value);
+        int n = sb.length();
+        ensure(n);
+        for(int i = 0; i < n; i++) {
+            buf[pos++] = (byte)sb.charAt(i);
+        }
+        return this;
+    }
+
+    /**
+     * Returns the bytes writeVarint takes for a value.
+     * @param value Unsigned value.
+     * @return Bytes of the varint. (1 to 10)
+     */
+    public static int varintSize(long value) {
+        int n = 1;
+        while((value & ~0x7FL) != 0) {
+            value >>>= 7;
+            n++;
+        }
+        return n;
+    }
+
+    /**
+     * Writes the varint length followed by the bytes.
+     * @param bytes Bytes to write.
+     * @return This writer.
+     */
+    public BinaryWriter writeBytes(byte[] bytes) {
+        writeVarint(bytes.length);
+        return write(bytes);
+    }
+
+    /**
+     * Returns a copy of the written bytes.
+     * @return Written bytes.
+     */
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buf, pos);
+    }
+
+    /**
+     * Returns a buffer with a copy of the written bytes, which may be kept by the receiver.
+     * @return Buffer ready to be read.
+     */
+    public ByteBuffer toByteBuffer() {
+        return ByteBuffer.wrap(toByteArray());
+    }
+}
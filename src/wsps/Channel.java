@@ -1,18 +1,137 @@
 package wsps;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.atomic.LongAdder;
 
 public class Channel {
-    protected ArrayList<Subscriber> subscribers;
-    protected String name;
+    private static final Subscriber[] NO_SUBSCRIBERS = new Subscriber[0];
+
+    /**
+     * Copy-on-write snapshot of the subscribers. Publishing threads only read the array reference,
+     * mutations replace it while holding the channel monitor.
+     */
+    protected volatile Subscriber[] subscribers = NO_SUBSCRIBERS;
+
+    /**
+     * Amount of subscribers, that are no plain clients, and the subscribers array if there are none.
+     * (Guarded by the monitor, the array identity tells publishing threads which snapshot it belongs to)
+     */
+    private int serverSubscribers = 0;
+    private volatile Subscriber[] clientsOnly = NO_SUBSCRIBERS;
+    protected final String name;
+    protected final int id;
+    final int hash;
+
+    /**
+     * Publishes at this channel. (See Metrics)
+     */
+    final LongAdder publishCount = new LongAdder();
+
+    /**
+     * Whether the clients were told, that the server is subscribing this channel. (Guarded by Manager)
+     */
+    boolean announced = false;
+
+    /**
+     * When the last subscriber left and whether the delayed unsubscribe announcement is pending. (Guarded by Manager)
+     */
+    long emptiedAt = 0;
+    boolean graceScheduled = false;
+
+    /**
+     * Subscribers to deliver to, including the ones of matching patterns.
+     * Valid as long as the subscribers array and the pattern stamp of the channel are the same.
+     */
+    private static class Delivery {
+        final Subscriber[] base;
+        final int stamp;
+        final Subscriber[] subscribers;
+        final boolean clientsOnly;
+
+        Delivery(Subscriber[] base, int stamp, Subscriber[] subscribers) {
+            this.base = base;
+            this.stamp = stamp;
+            this.subscribers = subscribers;
+            this.clientsOnly = countServerSubscribers(subscribers) == 0;
+        }
+    }
+
+    private volatile Delivery delivery = null;
+
+    /**
+     * Changed whenever a pattern matching this channel is subscribed or unsubscribed. (See invalidateDelivery)
+     */
+    private volatile int patternStamp = 0;
+
+    /**
+     * Last published event, delivered to every new subscriber if retaining is enabled. (See RetainedCache)
+     */
+    private volatile boolean retaining = false;
+    private volatile Event retained = null;
+
+    /**
+     * Recent events by sequence number for resuming clients or null if disabled.
+     * (Sequence numbers continue when the buffer is replaced, guarded by the monitor)
+     */
+    private volatile ReplayBuffer replay = null;
+    private long lastSequence = 0;
+
+    private static final AtomicReferenceFieldUpdater<Channel, Event> RETAINED =
+            AtomicReferenceFieldUpdater.newUpdater(Channel.class, Event.class, "retained");
+
+    /**
+     * Whether clients falling behind only get the latest pending event of this channel.
+     */
+    private volatile boolean conflating = false;
+
+    /**
+     * Keeps the order of asynchronous notifications per server-side subscriber. (Created on first use)
+     */
+    private volatile ConcurrentHashMap<Subscriber, SerialExecutor> serialDispatch = null;
+
+    /**
+     * Unsubscribed subscribers whose serial executor still has notifications pending. (Removed once idle)
+     */
+    private volatile Set<Subscriber> retiringDispatch = null;
 
     /**
      * Initializes a new channel object.
      * @param name Channel name.
      */
     public Channel(String name) {
+        this(name, -1);
+    }
+
+    /**
+     * Initializes a channel object, that is not registered in the channel table, for a name only subscribed
+     * through patterns. Delivers to the already matched subscribers. (Valid until the pattern table changes)
+     * @param name Channel name.
+     * @param matched Subscribers of the matching patterns.
+     * @return Unregistered channel object.
+     */
+    static Channel matched(String name, Subscriber[] matched) {
+        Channel ch = new Channel(name);
+        ch.delivery = new Delivery(ch.subscribers, 0, matched);
+        return ch;
+    }
+
+    /**
+     * Initializes a new channel object registered in the channel table.
+     * @param name Channel name.
+     * @param id Channel id. (-1 if not registered)
+     */
+    protected Channel(String name, int id) {
         this.name = name;
-        this.subscribers = new ArrayList<>();
+        this.id = id;
+        this.hash = name.hashCode();
     }
 
     /**
@@ -23,32 +142,290 @@ public class Channel {
         return this.name;
     }
 
+    /**
+     * Returns the id of this channel. (See Manager.channelId)
+     * @return Channel id or -1 if the channel is not registered.
+     */
+    public int getId() {
+        return this.id;
+    }
+
+    /**
+     * Returns how often data was published at this channel.
+     * @return Publish count.
+     */
+    public long getPublishCount() {
+        return this.publishCount.sum();
+    }
+
+    /**
+     * Returns a snapshot of the subscribing objects subscribed to this channel.
+     * @return Subscribers at the time of the call.
+     */
+    public ArrayList<Subscriber> getSubscribers() {
+        return new ArrayList<>(Arrays.asList(this.subscribers));
+    }
+
     /**
      * Returns the amount of subscribing objects subscribed to this channel.
      * @return Amount of subscribers.
      */
-    public ArrayList<Subscriber> getSubscribers() {
-        return this.subscribers;
+    public int getSubscriberCount() {
+        return this.subscribers.length;
     }
 
     /**
      * Add a new subscriber. (Adds the same subscribing object only once)
+     * A new subscriber is notified of the retained event right away, if there is one.
      * @param subscriber Subscribing object to notify.
+     * @return TRUE if the subscriber is the first one of this channel.
+     */
+    public synchronized boolean addSubscriber(Subscriber subscriber) {
+        return this.add(subscriber, true);
+    }
+
+    private boolean add(Subscriber subscriber, boolean deliverRetained) {
+        Subscriber[] subs = this.subscribers;
+        for(Subscriber sub : subs) {
+            if(subscriber.equals(sub)) {
+                return false;
+            }
+        }
+
+        Subscriber[] next = Arrays.copyOf(subs, subs.length + 1);
+        next[subs.length] = subscriber;
+        this.serverSubscribers += countServerSubscribers(subscriber);
+        this.clientsOnly = this.serverSubscribers == 0 ? next : null;
+        this.subscribers = next;
+
+        Set<Subscriber> retiring = this.retiringDispatch;
+        if(retiring != null) {
+            retiring.remove(subscriber);
+        }
+
+        //Under the monitor, so a concurrent publish can't overtake the retained event.
+        Event event = this.retained;
+        if(deliverRetained && event != null) {
+            this.deliver(new Subscriber[] {subscriber}, 0, 1, event, Manager.isAsyncSubscriberDispatch());
+            Manager.getRetainedCache().touch(this);
+        }
+
+        return subs.length == 0;
+    }
+
+    /**
+     * Subscribes a reconnecting client and sends it the events published after the last one it received.
+     * If they are not kept anymore, the client gets a gap frame instead and has to reload the channel state.
+     * @param client Resuming client.
+     * @param seq Sequence number of the last event the client received.
+     * @return TRUE if the client is the first subscriber of this channel.
+     */
+    public synchronized boolean resume(Client client, long seq) {
+        ReplayBuffer rb = this.replay;
+        ArrayList<Event> missed = rb != null ? rb.since(seq) : null;
+        if(missed == null) {
+            client.send(Frame.gap(this.name, rb != null ? rb.getLastSequence() : this.lastSequence));
+        } else {
+            for(Event event : missed) {
+                client.notify(this.name, event);
+            }
+        }
+
+        //The retained event is older than the replayed ones or the client reloads after a gap.
+        return this.add(client, false);
+    }
+
+    /**
+     * Returns the amount of recent events kept for resuming clients.
+     * @return Capacity, 0 if disabled.
+     */
+    public int getReplayCapacity() {
+        ReplayBuffer rb = this.replay;
+        return rb != null ? rb.capacity() : 0;
+    }
+
+    /**
+     * Sets the amount of recent events kept for resuming clients. Events published at a channel
+     * keeping them are sent with their sequence number. (See Frame.SEQUENCED_PUBLISH)
+     * Changing the capacity drops the kept events, the sequence numbers continue.
+     * @param capacity Amount of events, 0 to disable. (Default)
      */
-    public void addSubscriber(Subscriber subscriber) {
-        if(!this.subscribers.contains(subscriber)) {
-            this.subscribers.add(subscriber);
+    public synchronized void setReplayCapacity(int capacity) {
+        if(capacity < 0) {
+            throw new IllegalArgumentException("Capacity must not be negative.");
+        }
+
+        ReplayBuffer rb = this.replay;
+        if(rb != null) {
+            this.lastSequence = rb.getLastSequence();
         }
+
+        this.replay = capacity > 0 ? new ReplayBuffer(capacity, this.lastSequence) : null;
+    }
+
+    /**
+     * Returns whether a client's pending event of this channel is replaced by newer ones.
+     * @return TRUE if conflating.
+     */
+    public boolean isConflating() {
+        return this.conflating;
+    }
+
+    /**
+     * Enables or disables conflation. If enabled, a new event replaces the pending event of this channel
+     * in a client's outbound queue instead of being appended, so a slow client only gets the newest value.
+     * (Not applied to channels keeping a replay buffer, resuming clients rely on every sequence number)
+     * @param conflating TRUE to conflate.
+     */
+    public void setConflating(boolean conflating) {
+        this.conflating = conflating;
+    }
+
+    /**
+     * Returns whether the last published event is kept for new subscribers.
+     * @return TRUE if retaining.
+     */
+    public boolean isRetaining() {
+        return this.retaining;
+    }
+
+    /**
+     * Enables or disables keeping the last published event for new subscribers.
+     * Disabling drops the retained event.
+     * @param retaining TRUE to retain.
+     */
+    public synchronized void setRetaining(boolean retaining) {
+        this.retaining = retaining;
+        if(!retaining) {
+            this.retained = null;
+            Manager.getRetainedCache().remove(this);
+        }
+    }
+
+    /**
+     * Returns the retained event.
+     * @return Last published event or null if nothing is retained.
+     */
+    public Event getRetained() {
+        return this.retained;
+    }
+
+    /**
+     * Drops the retained event if it was not replaced yet. (Called by RetainedCache)
+     * @param event Evicted event.
+     */
+    void evictRetained(Event event) {
+        RETAINED.compareAndSet(this, event, null);
     }
 
     /**
      * Removes the subscriber if is subscribing.
      * @param subscriber Subscribing object to remove from subscribers.
+     * @return TRUE if the subscriber was the last one of this channel.
      */
-    public void removeSubscriber(Subscriber subscriber) {
-        if(this.subscribers.contains(subscriber)) {
-            this.subscribers.remove(subscriber);
+    public synchronized boolean removeSubscriber(Subscriber subscriber) {
+        Subscriber[] subs = this.subscribers;
+        for(int i = 0; i < subs.length; i++) {
+            if(subscriber.equals(subs[i])) {
+                this.serverSubscribers -= countServerSubscribers(subs[i]);
+                if(subs.length == 1) {
+                    this.clientsOnly = NO_SUBSCRIBERS;
+                    this.subscribers = NO_SUBSCRIBERS;
+                    this.removeSerialDispatch(subscriber);
+                    return true;
+                }
+
+                Subscriber[] next = new Subscriber[subs.length - 1];
+                System.arraycopy(subs, 0, next, 0, i);
+                System.arraycopy(subs, i + 1, next, i, subs.length - i - 1);
+                this.clientsOnly = this.serverSubscribers == 0 ? next : null;
+                this.subscribers = next;
+                this.removeSerialDispatch(subscriber);
+                return false;
+            }
         }
+
+        return false;
+    }
+
+    /**
+     * Returns whether a publish at this channel reaches a subscriber or is kept for later ones.
+     * (Lets primitive publishes skip allocating for channels nobody listens to)
+     * @return TRUE if a publish has any effect.
+     */
+    public boolean isDeliverable() {
+        return this.retaining || this.replay != null || this.getDeliverySubscribers().length > 0;
+    }
+
+    /**
+     * Returns whether all subscribers of a delivery snapshot are plain clients. Clients only keep the frame
+     * of an event, so the event object can be reused once notify returns.
+     * @param subs Result of getDeliverySubscribers.
+     * @return TRUE if there are no server-side subscribers.
+     */
+    private boolean isClientsOnly(Subscriber[] subs) {
+        if(subs == this.clientsOnly) {
+            return true;
+        }
+
+        Delivery d = this.delivery;
+        return d != null && d.subscribers == subs && d.clientsOnly;
+    }
+
+    private static int countServerSubscribers(Subscriber... subs) {
+        int n = 0;
+        for(Subscriber sub : subs) {
+            if(sub.getClass() != Client.class) {
+                n++;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Returns the subscribers of this channel and of all patterns matching it. (Each subscriber once)
+     * The pattern matches are cached until the subscribers or the pattern subscriptions change.
+     * @return Subscribers to notify.
+     */
+    protected Subscriber[] getDeliverySubscribers() {
+        Subscriber[] base = this.subscribers;
+        PatternTable patterns = Manager.patterns;
+        if(patterns.size() == 0) {
+            return base;
+        }
+
+        //Read before matching, so a pattern change meanwhile makes the next call match again.
+        int stamp = this.patternStamp;
+        Delivery d = this.delivery;
+        if(d != null && d.base == base && d.stamp == stamp) {
+            return d.subscribers;
+        }
+
+        Subscriber[] matched = patterns.match(this.name);
+        Subscriber[] subs = base;
+        if(matched.length > 0) {
+            subs = Arrays.copyOf(base, base.length + matched.length);
+            Set<Subscriber> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+            seen.addAll(Arrays.asList(base));
+            int n = base.length;
+            for(Subscriber sub : matched) {
+                if(seen.add(sub)) {
+                    subs[n++] = sub;
+                }
+            }
+            subs = n == subs.length ? subs : Arrays.copyOf(subs, n);
+        }
+
+        this.delivery = new Delivery(base, stamp, subs);
+        return subs;
+    }
+
+    /**
+     * Drops the cached pattern matches after a matching pattern was subscribed or unsubscribed.
+     * (Called after the pattern table changed, serialized by Manager)
+     */
+    void invalidateDelivery() {
+        this.patternStamp++;
     }
 
     /**
@@ -58,27 +435,265 @@ public class Channel {
      * @param range How far the data was published.
      */
     public void notify(Data eventData, Object sender, Range range) {
-        Event event = new Event(eventData, sender, range);
-        for(Subscriber sub : this.subscribers) {
-            sub.notify(this.name, event);
+        long start = System.nanoTime();
+        boolean conflate = this.conflating;
+        int notified;
+        if(this.retaining || this.replay != null) {
+            notified = this.notifyOrdered(new Event(eventData, sender, range, conflate));
+        } else {
+            Subscriber[] subs = this.getDeliverySubscribers();
+            notified = subs.length;
+            if(notified > 0 && this.isClientsOnly(subs)) {
+                Event event = Event.acquire(eventData, sender, range, conflate);
+                try {
+                    this.notify(subs, event);
+                } finally {
+                    event.release();
+                }
+            } else if(notified > 0) {
+                this.notify(subs, new Event(eventData, sender, range, conflate));
+            }
+        }
+
+        Manager.getMetrics().onPublish(this, notified, System.nanoTime() - start);
+    }
+
+    /**
+     * Retains and/or sequences an event and notifies the subscribers.
+     * Holds the monitor, so subscribers added or resuming meanwhile get this event exactly once.
+     * @param event Published event.
+     * @return Amount of notified subscribers.
+     */
+    private synchronized int notifyOrdered(Event event) {
+        ReplayBuffer rb = this.replay;
+        if(rb != null) {
+            rb.add(event);
+        }
+
+        if(this.retaining) {
+            //Pre-encodes the frame shared with every later subscriber.
+            long size = RetainedCache.sizeOf(this, event);
+            this.retained = event;
+            //Accounted in the same critical section, so the cache always holds the event the channel retains.
+            Manager.getRetainedCache().put(this, event, size);
+        }
+
+        Subscriber[] subs = this.getDeliverySubscribers();
+        this.notify(subs, event);
+        return subs.length;
+    }
+
+    /**
+     * Notifies subscribers of an event. (In parallel chunks if above the fan-out threshold)
+     * @param subs Subscribers.
+     * @param event Published event.
+     */
+    private void notify(Subscriber[] subs, Event event) {
+        if(subs.length == 0) {
+            return;
+        }
+
+        Range range = event.getRange();
+        boolean async = Manager.isAsyncSubscriberDispatch();
+        int threshold = Manager.getParallelFanOutThreshold();
+        if(threshold > 0 && subs.length >= threshold) {
+            ForkJoinPool pool = Manager.getFanOutPool();
+            int chunk = Math.max(MIN_FAN_OUT_CHUNK, subs.length / (pool.getParallelism() * 4));
+            if(range.value > Range.ServerOnly.value) {
+                //Built once here instead of racing in every worker.
+                event.getFrame(this.name);
+            }
+            pool.invoke(new FanOut(this, subs, 0, subs.length, chunk, event, async));
+            return;
+        }
+
+        this.deliver(subs, 0, subs.length, event, async);
+    }
+
+    private static final int MIN_FAN_OUT_CHUNK = 512;
+
+    /**
+     * Notifies a range of subscribers.
+     * @param subs Subscribers.
+     * @param from Index of the first subscriber.
+     * @param to Index after the last subscriber.
+     * @param event Published event.
+     * @param async Notify server-side subscribers on the subscriber executor.
+     */
+    private void deliver(Subscriber[] subs, int from, int to, Event event, boolean async) {
+        for(int i = from; i < to; i++) {
+            Subscriber sub = subs[i];
+            if(async && !(sub instanceof Client)) {
+                Runnable task = () -> sub.notify(this.name, event);
+                //A retired executor was idle and is being removed, the next one keeps the order.
+                for(;;) {
+                    SerialExecutor executor = this.serialDispatch(sub);
+                    if(executor.offer(task)) {
+                        break;
+                    }
+                    this.serialDispatch.remove(sub, executor);
+                }
+            } else {
+                sub.notify(this.name, event);
+            }
+        }
+    }
+
+    /**
+     * Splits the subscribers in halves until the chunk size is reached, then notifies the chunks in parallel.
+     */
+    private static class FanOut extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Channel channel;
+        private final Subscriber[] subs;
+        private final int from;
+        private final int to;
+        private final int chunk;
+        private final Event event;
+        private final boolean async;
+
+        FanOut(Channel channel, Subscriber[] subs, int from, int to, int chunk, Event event, boolean async) {
+            this.channel = channel;
+            this.subs = subs;
+            this.from = from;
+            this.to = to;
+            this.chunk = chunk;
+            this.event = event;
+            this.async = async;
+        }
+
+        @Override
+        protected void compute() {
+            if(to - from <= chunk) {
+                channel.deliver(subs, from, to, event, async);
+                return;
+            }
+
+            int mid = (from + to) >>> 1;
+            invokeAll(new FanOut(channel, subs, from, mid, chunk, event, async),
+                    new FanOut(channel, subs, mid, to, chunk, event, async));
+        }
+    }
+
+    /**
+     * Returns the executor notifying a server-side subscriber of this channel in order.
+     * @param subscriber Server-side subscriber.
+     * @return Serial executor on the subscriber executor.
+     */
+    private SerialExecutor serialDispatch(Subscriber subscriber) {
+        ConcurrentHashMap<Subscriber, SerialExecutor> map = this.serialDispatch;
+        if(map == null) {
+            synchronized (this) {
+                map = this.serialDispatch;
+                if(map == null) {
+                    this.retiringDispatch = ConcurrentHashMap.newKeySet();
+                    this.serialDispatch = map = new ConcurrentHashMap<>();
+                }
+            }
+        }
+
+        SerialExecutor executor = map.get(subscriber);
+        if(executor == null) {
+            executor = map.computeIfAbsent(subscriber,
+                    s -> new SerialExecutor(Manager.getSubscriberExecutor(), e -> this.onSerialIdle(s, e)));
+        }
+
+        return executor;
+    }
+
+    /**
+     * Releases the serial executor of an unsubscribed subscriber. Kept until its pending notifications ran,
+     * so a resubscribing subscriber reuses it instead of a second executor running alongside.
+     * @param subscriber Removed subscriber.
+     */
+    private void removeSerialDispatch(Subscriber subscriber) {
+        ConcurrentHashMap<Subscriber, SerialExecutor> map = this.serialDispatch;
+        if(map == null) {
+            return;
+        }
+
+        SerialExecutor executor = map.get(subscriber);
+        if(executor != null) {
+            this.retiringDispatch.add(subscriber);
+            this.onSerialIdle(subscriber, executor);
         }
     }
 
+    private void onSerialIdle(Subscriber subscriber, SerialExecutor executor) {
+        Set<Subscriber> retiring = this.retiringDispatch;
+        if(retiring.isEmpty() || !retiring.contains(subscriber) || !executor.retireIfIdle()) {
+            return;
+        }
+
+        retiring.remove(subscriber);
+        this.serialDispatch.remove(subscriber, executor);
+    }
+
     /**
      * Converts a comma separated channels string to an array list of channel names.
      * @param channels Comma separated channel names.
      * @return Array list of channels.
      */
     public static ArrayList<String> parseChannelNames(String channels) {
-        String[] str = channels.split("(?<!\\\\),");
-        ArrayList<String> lst = new ArrayList<>(str.length);
-        for(String channel : str) {
-            lst.add(channel.replace("\\,", ","));
+        return parseChannelNames(channels, 0, channels.length());
+    }
+
+    /**
+     * Converts comma separated channels in a part of a string to an array list of channel names.
+     * (Single pass, like splitting at commas not preceded by a backslash and unescaping the commas)
+     * @param str String containing the comma separated channel names.
+     * @param start Index of the first character.
+     * @param end Index after the last character.
+     * @return Array list of channels.
+     */
+    public static ArrayList<String> parseChannelNames(String str, int start, int end) {
+        ArrayList<String> lst = new ArrayList<>();
+        int from = start;
+        for(int i = start; i <= end; i++) {
+            if(i == end || (str.charAt(i) == ',' && (i == start || str.charAt(i - 1) != '\\'))) {
+                lst.add(unescapeChannelName(str, from, i));
+                from = i + 1;
+            }
+        }
+
+        //Like String.split, trailing empty names are dropped if there was more than one.
+        int size = lst.size();
+        while(size > 1 && lst.get(size - 1).isEmpty()) {
+            lst.remove(--size);
+        }
+        if(size == 1 && end > start && lst.get(0).isEmpty()) {
+            lst.clear();
         }
 
         return lst;
     }
 
+    /**
+     * Returns the channel name in a part of a string, with escaped commas unescaped.
+     * @param str String containing the channel name.
+     * @param start Index of the first character.
+     * @param end Index after the last character.
+     * @return Channel name.
+     */
+    static String unescapeChannelName(String str, int start, int end) {
+        int esc = str.indexOf('\\', start);
+        if(esc < 0 || esc >= end) {
+            return str.substring(start, end);
+        }
+
+        StringBuilder sb = new StringBuilder(end - start);
+        for(int i = start; i < end; i++) {
+            char c = str.charAt(i);
+            if(c == '\\' && i + 1 < end && str.charAt(i + 1) == ',') {
+                continue;
+            }
+            sb.append(c);
+        }
+
+        return sb.toString();
+    }
+
     /**
      * Converts an array list of channel names to a string of comma separated channel names.
      * (Commas in channel names will be escaped by the method with a backslash.)
@@ -86,18 +701,32 @@ public class Channel {
      * @return Comma separated string of channel names.
      */
     public static String stringifyChannelNames(ArrayList<String> channels) {
-        String str = null;
+        if(channels.isEmpty()) {
+            return null;
+        }
 
+        int length = channels.size();
         for(String channel : channels) {
-            if(str == null) {
-                str = "";
-            } else {
-                str += ",";
+            length += channel.length();
+        }
+
+        StringBuilder sb = new StringBuilder(length);
+        boolean first = true;
+        for(String channel : channels) {
+            if(!first) {
+                sb.append(',');
             }
+            first = false;
 
-            str += channel.replace(",", "\\,");
+            for(int i = 0; i < channel.length(); i++) {
+                char c = channel.charAt(i);
+                if(c == ',') {
+                    sb.append('\\');
+                }
+                sb.append(c);
+            }
         }
 
-        return str;
+        return sb.toString();
     }
 }
@@ -0,0 +1,137 @@
+package wsps;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+
+/**
+ * The announced channels, kept as chunks of pre-encoded subscribe frames for newly connected clients.
+ * A change only invalidates the frame of one chunk, which is rebuilt on the next connect and then shared
+ * by all clients connecting until the chunk changes again. Not thread-safe. (Guarded by Manager)
+ */
+public class ChannelSnapshot {
+    public static final int DEFAULT_CHUNK_SIZE = 16384;
+
+    private static class Chunk {
+        final LinkedHashSet<String> names = new LinkedHashSet<>();
+        int size = 0;
+        Frame frame = null;
+    }
+
+    protected final int chunkSize;
+    private final ArrayList<Chunk> chunks = new ArrayList<>();
+    private final LinkedHashSet<Chunk> notFull = new LinkedHashSet<>();
+    private final HashMap<String, Chunk> chunkOf = new HashMap<>();
+
+    /**
+     * Initializes a new snapshot.
+     * @param chunkSize Maximum characters of channel names per subscribe frame.
+     */
+    public ChannelSnapshot(int chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
+    public ChannelSnapshot() {
+        this(DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Returns the amount of channels.
+     * @return Amount of channels.
+     */
+    public int size() {
+        return chunkOf.size();
+    }
+
+    /**
+     * Returns whether a channel is contained.
+     * @param channel Channel name.
+     * @return TRUE if contained.
+     */
+    public boolean contains(String channel) {
+        return chunkOf.containsKey(channel);
+    }
+
+    /**
+     * Adds a channel. (Into a chunk with room left, so chunks emptied by removals are filled again)
+     * @param channel Channel name.
+     * @return FALSE if already contained.
+     */
+    public boolean add(String channel) {
+        if(chunkOf.containsKey(channel)) {
+            return false;
+        }
+
+        int size = channel.length() + 1;
+        Chunk chunk = null;
+        for(Chunk c : notFull) {
+            if(c.size + size <= chunkSize || c.names.isEmpty()) {
+                chunk = c;
+                break;
+            }
+        }
+
+        if(chunk == null) {
+            chunk = new Chunk();
+            chunks.add(chunk);
+            notFull.add(chunk);
+        }
+
+        chunk.names.add(channel);
+        chunk.size += size;
+        chunk.frame = null;
+        if(chunk.size >= chunkSize) {
+            notFull.remove(chunk);
+        }
+        chunkOf.put(channel, chunk);
+        return true;
+    }
+
+    /**
+     * Removes a channel.
+     * @param channel Channel name.
+     * @return FALSE if not contained.
+     */
+    public boolean remove(String channel) {
+        Chunk chunk = chunkOf.remove(channel);
+        if(chunk == null) {
+            return false;
+        }
+
+        chunk.names.remove(channel);
+        chunk.size -= channel.length() + 1;
+        chunk.frame = null;
+        if(chunk.names.isEmpty()) {
+            chunks.remove(chunk);
+            notFull.remove(chunk);
+        } else {
+            notFull.add(chunk);
+        }
+
+        return true;
+    }
+
+    /**
+     * Returns the subscribe frames of all channels. (Each frame is encoded only once until its chunk changes)
+     * @return Subscribe frames.
+     */
+    public ArrayList<Frame> getFrames() {
+        ArrayList<Frame> frames = new ArrayList<>(chunks.size());
+        for(Chunk chunk : chunks) {
+            if(chunk.frame == null) {
+                chunk.frame = Frame.subscribe(new ArrayList<>(chunk.names));
+            }
+            frames.add(chunk.frame);
+        }
+
+        return frames;
+    }
+
+    /**
+     * Returns the names of all channels.
+     * @return Channel names.
+     */
+    public ArrayList<String> getChannelNames() {
+        return new ArrayList<>(chunkOf.keySet());
+    }
+}
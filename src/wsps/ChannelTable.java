@@ -0,0 +1,141 @@
+package wsps;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Symbol table of the channels. Interns channel names and assigns dense int ids.
+ * Lookups by name, by a part of a string or by id are lock-free, creating channels is synchronized.
+ * Channels are never removed, so an id stays valid for the whole runtime.
+ */
+public class ChannelTable {
+    private volatile AtomicReferenceArray<Channel> slots = new AtomicReferenceArray<>(64);
+    private volatile AtomicReferenceArray<Channel> byId = new AtomicReferenceArray<>(64);
+    private volatile int size = 0;
+
+    /**
+     * Returns the amount of channels.
+     * @return Amount of channels.
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Returns the channel of an id.
+     * @param id Channel id.
+     * @return Channel object or null if the id is not assigned.
+     */
+    public Channel get(int id) {
+        AtomicReferenceArray<Channel> ids = this.byId;
+        return id >= 0 && id < ids.length() ? ids.get(id) : null;
+    }
+
+    /**
+     * Returns the channel of a name.
+     * @param name Channel name.
+     * @return Channel object or null if not existing.
+     */
+    public Channel get(String name) {
+        return this.get(name, 0, name.length());
+    }
+
+    /**
+     * Returns the channel of the name in a part of a string, without copying the name.
+     * @param str String containing the channel name.
+     * @param start Index of the first character.
+     * @param end Index after the last character.
+     * @return Channel object or null if not existing.
+     */
+    public Channel get(String str, int start, int end) {
+        int h = hash(str, start, end);
+        AtomicReferenceArray<Channel> tab = this.slots;
+        int mask = tab.length() - 1;
+        for(int i = spread(h) & mask; ; i = (i + 1) & mask) {
+            Channel ch = tab.get(i);
+            if(ch == null) {
+                return null;
+            }
+
+            String name = ch.name;
+            if(ch.hash == h && name.length() == end - start && name.regionMatches(0, str, start, end - start)) {
+                return ch;
+            }
+        }
+    }
+
+    /**
+     * Returns the channel of a name, creates it with the next free id if not existing yet.
+     * @param name Channel name.
+     * @return Channel object.
+     */
+    public Channel intern(String name) {
+        Channel ch = this.get(name);
+        if(ch != null) {
+            return ch;
+        }
+
+        synchronized (this) {
+            ch = this.get(name);
+            if(ch != null) {
+                return ch;
+            }
+
+            int id = this.size;
+            ch = new Channel(name, id);
+
+            AtomicReferenceArray<Channel> ids = this.byId;
+            if(id >= ids.length()) {
+                ids = copy(ids, ids.length() << 1);
+            }
+            ids.set(id, ch);
+            this.byId = ids;
+
+            AtomicReferenceArray<Channel> tab = this.slots;
+            if((id + 1) * 2 > tab.length()) {
+                tab = new AtomicReferenceArray<>(tab.length() << 1);
+                for(int i = 0; i < id; i++) {
+                    insert(tab, ids.get(i));
+                }
+                insert(tab, ch);
+                this.slots = tab;
+            } else {
+                insert(tab, ch);
+            }
+
+            this.size = id + 1;
+            return ch;
+        }
+    }
+
+    private static void insert(AtomicReferenceArray<Channel> tab, Channel ch) {
+        int mask = tab.length() - 1;
+        int i = spread(ch.hash) & mask;
+        while(tab.get(i) != null) {
+            i = (i + 1) & mask;
+        }
+        tab.set(i, ch);
+    }
+
+    private static AtomicReferenceArray<Channel> copy(AtomicReferenceArray<Channel> src, int length) {
+        AtomicReferenceArray<Channel> dst = new AtomicReferenceArray<>(length);
+        for(int i = 0; i < src.length(); i++) {
+            dst.set(i, src.get(i));
+        }
+        return dst;
+    }
+
+    /**
+     * Hashes like String.hashCode of the part of the string.
+     */
+    static int hash(String str, int start, int end) {
+        int h = 0;
+        for(int i = start; i < end; i++) {
+            h = 31 * h + str.charAt(i);
+        }
+        return h;
+    }
+
+    private static int spread(int h) {
+        return h ^ (h >>> 16);
+    }
+}
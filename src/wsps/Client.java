@@ -1,14 +1,32 @@
 package wsps;
 
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Handles the data transfer between client and server.
  */
 public class Client implements Subscriber {
     protected WebSocketClientWrapper wscw;
-    protected ArrayList<String> channels;
-    protected boolean closed = false;
+    protected IntSet channels;
+    protected HashSet<String> patterns;
+    protected OutboundQueue outbound;
+    protected ArrayList<String> inboundChannelIds = null;
+    protected volatile boolean closed = false;
+
+    /**
+     * Publish limit buckets of this client, created on first publish. (See Manager.setClientPublishLimit)
+     */
+    protected volatile RateLimit.Bucket publishBucket = null;
+    protected IntMap<RateLimit.Bucket> channelBuckets = null;
+    protected RateLimit.Bucket patternBucket = null;
+    private final LongAdder rejectedPublishes = new LongAdder();
+    private final LongAdder receivedMessages = new LongAdder();
+    private final LongAdder receivedBytes = new LongAdder();
 
     /**
      * Initializes a new client representative.
@@ -16,7 +34,9 @@ public class Client implements Subscriber {
      */
     public Client(WebSocketClientWrapper wscw) {
         this.wscw = wscw;
-        this.channels = new ArrayList<>();
+        this.channels = new IntSet();
+        this.patterns = new HashSet<>();
+        this.outbound = new OutboundQueue(this);
         Manager.onNewClient(this);
     }
 
@@ -28,13 +48,159 @@ public class Client implements Subscriber {
         return this.wscw;
     }
 
+    /**
+     * Returns the queue of frames waiting to be sent to the WebSocket client.
+     * (Use it to configure capacity and overflow policy)
+     * @return Outbound queue.
+     */
+    public OutboundQueue getOutboundQueue() {
+        return this.outbound;
+    }
+
+    /**
+     * Returns the amount of frames waiting to be sent to the WebSocket client.
+     * @return Queue depth.
+     */
+    public int getQueueDepth() {
+        return this.outbound.size();
+    }
+
+    /**
+     * Returns the amount of frames dropped because the WebSocket client did not keep up.
+     * @return Dropped frames.
+     */
+    public long getDroppedCount() {
+        return this.outbound.getDroppedCount();
+    }
+
+    /**
+     * Returns the amount of WebSocket messages sent to the client.
+     * @return Sent messages.
+     */
+    public long getSentMessages() {
+        return this.outbound.getSentMessages();
+    }
+
+    /**
+     * Returns the bytes of all WebSocket messages sent to the client.
+     * @return Sent bytes.
+     */
+    public long getSentBytes() {
+        return this.outbound.getSentBytes();
+    }
+
+    /**
+     * Returns the amount of WebSocket messages received from the client.
+     * @return Received messages.
+     */
+    public long getReceivedMessages() {
+        return this.receivedMessages.sum();
+    }
+
+    /**
+     * Returns the bytes of all WebSocket messages received from the client.
+     * @return Received bytes.
+     */
+    public long getReceivedBytes() {
+        return this.receivedBytes.sum();
+    }
+
+    /**
+     * Returns the amount of publishes of this client dropped by the publish limits.
+     * @return Rejected publishes.
+     */
+    public long getRejectedPublishCount() {
+        return this.rejectedPublishes.sum();
+    }
+
+    /**
+     * Takes a token of the client publish limit.
+     * @return FALSE if the client exceeded the limit.
+     */
+    private boolean acquirePublish() {
+        RateLimit limit = Manager.getClientPublishLimit();
+        if(limit == null) {
+            return true;
+        }
+
+        RateLimit.Bucket bucket = this.publishBucket;
+        if(bucket == null || bucket.getLimit() != limit) {
+            this.publishBucket = bucket = limit.newBucket();
+        }
+
+        if(bucket.tryAcquire()) {
+            return true;
+        }
+
+        this.rejectPublish();
+        return false;
+    }
+
+    /**
+     * Takes a token of the channel publish limit.
+     * @param ch Channel published at.
+     * @return FALSE if the client exceeded the limit at this channel.
+     */
+    private boolean acquirePublish(Channel ch) {
+        RateLimit limit = Manager.getChannelPublishLimit();
+        if(limit == null) {
+            return true;
+        }
+
+        //Keyed by id, so the map is bound by the channel table. (Unregistered pattern-only channels share one bucket)
+        int id = ch.getId();
+        RateLimit.Bucket bucket;
+        synchronized (this) {
+            if(id < 0) {
+                bucket = this.patternBucket;
+                if(bucket == null || bucket.getLimit() != limit) {
+                    this.patternBucket = bucket = limit.newBucket();
+                }
+            } else {
+                if(this.channelBuckets == null) {
+                    this.channelBuckets = new IntMap<>();
+                }
+                bucket = this.channelBuckets.get(id);
+                if(bucket == null || bucket.getLimit() != limit) {
+                    bucket = limit.newBucket();
+                    this.channelBuckets.put(id, bucket);
+                }
+            }
+        }
+
+        if(bucket.tryAcquire()) {
+            return true;
+        }
+
+        this.rejectPublish();
+        return false;
+    }
+
+    private void onReceived(int bytes) {
+        this.receivedMessages.increment();
+        this.receivedBytes.add(bytes);
+        Manager.getMetrics().onReceived(bytes);
+    }
+
+    private void rejectPublish() {
+        this.rejectedPublishes.increment();
+        Manager.onPublishRejected();
+    }
+
+    /**
+     * Queues a frame to be sent to the WebSocket client.
+     * @param frame Frame to send.
+     */
+    protected void send(Frame frame) {
+        this.outbound.offer(frame);
+    }
+
     /**
      * Subscribe server to client at channel.
      * @param channel Channel name.
      */
     public void subscribe(String channel) {
-        String msg = "s" + channel;
-        this.wscw.send(msg);
+        this.send(Frame.subscribe(new ArrayList<>(Collections.singletonList(channel))));
     }
 
     /**
@@ -42,8 +208,7 @@ public class Client implements Subscriber {
      * @param channelList Channel names.
      */
     public void subscribe(ArrayList<String> channelList) {
-        String msg = "s" + Channel.stringifyChannelNames(channelList);
-        this.wscw.send(msg);
+        this.send(Frame.subscribe(channelList));
     }
 
     /**
@@ -51,8 +216,7 @@ public class Client implements Subscriber {
      * @param channel Channel name.
      */
     public void unsubscribe(String channel) {
-        String msg = "u" + channel;
-        this.wscw.send(msg);
+        this.send(Frame.unsubscribe(new ArrayList<>(Collections.singletonList(channel))));
     }
 
     /**
@@ -60,8 +224,7 @@ public class Client implements Subscriber {
      * @param channelList Channel names.
      */
     public void unsubscribe(ArrayList<String> channelList) {
-        String msg = "u" + Channel.stringifyChannelNames(channelList);
-        this.wscw.send(msg);
+        this.send(Frame.unsubscribe(channelList));
     }
 
     /**
@@ -70,7 +233,7 @@ public class Client implements Subscriber {
      * @param eventData Published data.
      */
     public void onPublish(String channel, Data eventData) {
-        Manager.publish(channel, eventData, this, Range.ServerOnly);
+        this.onPublish(channel, eventData, Range.ServerOnly);
     }
 
     /**
@@ -80,7 +243,10 @@ public class Client implements Subscriber {
      * @param range The range, how far data was published.
      */
     public void onPublish(String channel, Data eventData, Range range) {
-        Manager.publish(channel, eventData, this, range);
+        Channel ch = Manager.publishChannel(channel);
+        if(ch != null) {
+            this.onPublish(ch, eventData, range);
+        }
     }
 
     /**
@@ -89,9 +255,7 @@ public class Client implements Subscriber {
      * @param eventData Published data.
      */
     public void onPublish(ArrayList<String> channelList, Data eventData) {
-        for(String channel : channelList) {
-            Manager.publish(channel, eventData, this, Range.ServerOnly);
-        }
+        this.onPublish(channelList, eventData, Range.ServerOnly);
     }
 
     /**
@@ -102,7 +266,20 @@ public class Client implements Subscriber {
      */
     public void onPublish(ArrayList<String> channelList, Data eventData, Range range) {
         for(String channel : channelList) {
-            Manager.publish(channel, eventData, this, range);
+            this.onPublish(channel, eventData, range);
+        }
+    }
+
+    /**
+     * Publish data the client sent at a channel. Both protocol parsers and the other onPublish methods call it
+     * once per channel, override it to filter or authorize the publishes of clients.
+     * @param ch Channel published at.
+     * @param eventData Published data.
+     * @param range The range, how far data was published.
+     */
+    protected void onPublish(Channel ch, Data eventData, Range range) {
+        if(this.acquirePublish(ch)) {
+            Manager.publish(ch, eventData, this, range);
         }
     }
 
@@ -114,8 +291,7 @@ public class Client implements Subscriber {
     @Override
     public void notify(String channel, Event event) {
         if(event.getRange().value > Range.ServerOnly.value && event.sender != this) {
-            String msg = "p" + String.valueOf(event.getRange().value) + channel.length() + ':' + channel + event.getData().toNetworkString();
-            this.wscw.send(msg);
+            this.send(event.getFrame(channel));
         }
     }
 
@@ -124,11 +300,24 @@ public class Client implements Subscriber {
      * @param channel Channel name.
      */
     public void onSubscribe(String channel) {
-        Manager.subscribe(channel, this);
-        if(!this.channels.contains(channel)) {
-            this.channels.add(channel);
+        Channel ch = Manager.channel(channel);
+        Manager.subscribe(ch, this);
+        synchronized (this.channels) {
+            this.channels.add(ch.getId());
         }
+    }
 
+    /**
+     * Subscribe the reconnecting client to channel, sending the events published after the last one it received.
+     * @param channel Channel name.
+     * @param seq Sequence number of the last event received at the channel.
+     */
+    public void onResume(String channel, long seq) {
+        Channel ch = Manager.channel(channel);
+        Manager.resume(ch, this, seq);
+        synchronized (this.channels) {
+            this.channels.add(ch.getId());
+        }
     }
 
     /**
@@ -137,10 +326,7 @@ public class Client implements Subscriber {
      */
     public void onSubscribe(ArrayList<String> channelList) {
         for(String channel : channelList) {
-            Manager.subscribe(channel, this);
-            if(!this.channels.contains(channel)) {
-                this.channels.add(channel);
-            }
+            this.onSubscribe(channel);
         }
     }
 
@@ -149,9 +335,14 @@ public class Client implements Subscriber {
      * @param channel Channel name.
      */
     public void onUnsubscribe(String channel) {
-        Manager.unsubscribe(channel, this);
-        if(this.channels.contains(channel)) {
-            this.channels.remove(channel);
+        Channel ch = Manager.channels.get(channel);
+        if(ch == null) {
+            return;
+        }
+
+        Manager.unsubscribe(ch, this);
+        synchronized (this.channels) {
+            this.channels.remove(ch.getId());
         }
     }
 
@@ -161,37 +352,275 @@ public class Client implements Subscriber {
      */
     public void onUnsubscribe(ArrayList<String> channelList) {
         for(String channel : channelList) {
-            Manager.unsubscribe(channel, this);
-            if (this.channels.contains(channel)) {
-                this.channels.remove(channel);
+            this.onUnsubscribe(channel);
+        }
+    }
+
+    /**
+     * Subscribe the client to all channels matching patterns. (Invalid patterns are ignored)
+     * @param patternList Patterns. (See PatternTable)
+     */
+    public void onPatternSubscribe(ArrayList<String> patternList) {
+        for(String pattern : patternList) {
+            try {
+                Manager.subscribePattern(pattern, this);
+            } catch (IllegalArgumentException e) {
+                continue;
+            }
+
+            synchronized (this.patterns) {
+                this.patterns.add(pattern);
             }
         }
     }
 
+    /**
+     * Unsubscribe the client from patterns.
+     * @param patternList Patterns.
+     */
+    public void onPatternUnsubscribe(ArrayList<String> patternList) {
+        for(String pattern : patternList) {
+            Manager.unsubscribePattern(pattern, this);
+            synchronized (this.patterns) {
+                this.patterns.remove(pattern);
+            }
+        }
+    }
+
+    /**
+     * Returns whether the client subscribed a channel.
+     * @param channelId Channel id.
+     * @return TRUE if subscribing.
+     */
+    public boolean isSubscribed(int channelId) {
+        synchronized (this.channels) {
+            return this.channels.contains(channelId);
+        }
+    }
+
     /**
      * Call when WebSocket client receives new data.
      * @param msg Received data.
      */
     public void onNewMessage(String msg) {
-        ArrayList<String> channels;
-        if(msg.startsWith("p")) {
-            byte range = Byte.parseByte(msg.substring(1, 2));
-            int i = msg.indexOf(':', 3);
-            int cnmLng = Integer.parseInt(msg.substring(2, i++));
-            channels = Channel.parseChannelNames(msg.substring(i, i + cnmLng));
-            i += cnmLng;
-            String eventData = msg.substring(i);
-
-            this.onPublish(channels, Data.fromDataString(eventData), Range.fromByte(range));
-        } else if(msg.startsWith("s")) {
-            channels = Channel.parseChannelNames(msg.substring(1));
-            this.onSubscribe(channels);
-        } else if(msg.startsWith("u")) {
-            channels = Channel.parseChannelNames(msg.substring(1));
-            this.onUnsubscribe(channels);
+        this.onReceived(Frame.utf8Length(msg));
+        if(msg.isEmpty()) {
+            return;
+        }
+
+        switch(msg.charAt(0)) {
+            case 'p':
+                this.parsePublish(msg);
+                return;
+
+            case 's':
+                this.onSubscribe(Channel.parseChannelNames(msg, 1, msg.length()));
+                return;
+
+            case 'u':
+                this.onUnsubscribe(Channel.parseChannelNames(msg, 1, msg.length()));
+                return;
+
+            case 'S':
+                this.onPatternSubscribe(Channel.parseChannelNames(msg, 1, msg.length()));
+                return;
+
+            case 'U':
+                this.onPatternUnsubscribe(Channel.parseChannelNames(msg, 1, msg.length()));
+                return;
+
+            case 'r':
+                this.parseResume(msg);
+                return;
+
+            case 'B':
+                if(msg.length() == 1 && this.wscw.supportsBinary()) {
+                    //Acknowledged with "B", all following messages to the client are binary.
+                    this.send(new Frame("B"));
+                }
+                return;
         }
 
         //TODO: Something impossible happens, or maybe someone trys to hack the protocol?
+        Manager.getMetrics().onParseFailure();
+    }
+
+    /**
+     * Parses a publish message in a single pass and publishes the data at its channels.
+     * The channel names are looked up in place, only the data is allocated.
+     * @param msg Received publish message. ("p" range length ":" channels data)
+     */
+    private void parsePublish(String msg) {
+        int n = msg.length();
+        if(n < 5) {
+            Manager.getMetrics().onParseFailure();
+            return;
+        }
+
+        if(!this.acquirePublish()) {
+            return;
+        }
+
+        Range range = Range.fromByte((byte)(msg.charAt(1) - '0'));
+        if(range == null) {
+            Manager.getMetrics().onParseFailure();
+            return;
+        }
+
+        int i = 2;
+        int cnmLng = 0;
+        for(char c; i < n && (c = msg.charAt(i)) != ':'; i++) {
+            if(c < '0' || c > '9' || cnmLng > n) {
+                Manager.getMetrics().onParseFailure();
+                return;
+            }
+            cnmLng = cnmLng * 10 + (c - '0');
+        }
+
+        int start = i + 1;
+        int end = start + cnmLng;
+        if(i == 2 || end >= n) {
+            Manager.getMetrics().onParseFailure();
+            return;
+        }
+
+        Data eventData;
+        try {
+            eventData = Data.fromDataString(msg, end);
+        } catch (IllegalArgumentException e) {
+            Manager.getMetrics().onParseFailure();
+            return;
+        }
+
+        for(i = start; i <= end; i++) {
+            if(i == end || (msg.charAt(i) == ',' && msg.charAt(i - 1) != '\\')) {
+                if(i > start) {
+                    Channel ch = Manager.findChannel(msg, start, i);
+                    if(ch != null) {
+                        this.onPublish(ch, eventData, range);
+                    }
+                }
+                start = i + 1;
+            }
+        }
+    }
+
+    /**
+     * Parses a resume message. ("r" seq ":" channel)
+     * @param msg Received resume message.
+     */
+    private void parseResume(String msg) {
+        int colon = msg.indexOf(':');
+        if(colon < 2 || colon == msg.length() - 1 || colon > 20) {
+            Manager.getMetrics().onParseFailure();
+            return;
+        }
+
+        long seq = 0;
+        for(int i = 1; i < colon; i++) {
+            char c = msg.charAt(i);
+            if(c < '0' || c > '9') {
+                Manager.getMetrics().onParseFailure();
+                return;
+            }
+            seq = seq * 10 + (c - '0');
+        }
+
+        if(seq >= 0) {
+            this.onResume(msg.substring(colon + 1), seq);
+        } else {
+            Manager.getMetrics().onParseFailure();
+        }
+    }
+
+    /**
+     * Call when WebSocket client receives new binary data. (Binary protocol, see Frame)
+     * A malformed message closes the connection.
+     * @param msg Received data.
+     */
+    public void onNewMessage(ByteBuffer msg) {
+        this.onReceived(msg.remaining());
+        BinaryReader in = new BinaryReader(msg);
+        try {
+            int op = in.readByte();
+            if(op == Frame.PUBLISH) {
+                //The reference is read anyway, it may define a channel id used by following messages.
+                String channel = this.readChannelRef(in);
+                if(!this.acquirePublish()) {
+                    return;
+                }
+
+                Range range = Range.fromByte((byte)in.readByte());
+                Data data = Data.fromBinary(in);
+                Channel ch = range != null ? Manager.publishChannel(channel) : null;
+                if(ch != null) {
+                    this.onPublish(ch, data, range);
+                }
+            } else if(op == Frame.RESUME) {
+                long seq = in.readVarint();
+                if(seq < 0) {
+                    throw new IllegalArgumentException("Negative sequence number.");
+                }
+                this.onResume(this.readChannelRef(in), seq);
+            } else if(op == Frame.SUBSCRIBE || op == Frame.UNSUBSCRIBE || op == Frame.PATTERN_SUBSCRIBE || op == Frame.PATTERN_UNSUBSCRIBE) {
+                int count = in.readLength();
+                ArrayList<String> channels = new ArrayList<>(count);
+                for(int i = 0; i < count; i++) {
+                    channels.add(in.readString());
+                }
+
+                if(op == Frame.SUBSCRIBE) {
+                    this.onSubscribe(channels);
+                } else if(op == Frame.UNSUBSCRIBE) {
+                    this.onUnsubscribe(channels);
+                } else if(op == Frame.PATTERN_SUBSCRIBE) {
+                    this.onPatternSubscribe(channels);
+                } else {
+                    this.onPatternUnsubscribe(channels);
+                }
+            } else {
+                Manager.getMetrics().onParseFailure();
+            }
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            //Malformed message. The channel ids defined so far can't be trusted anymore, so the connection is closed.
+            Manager.getMetrics().onParseFailure();
+            this.disconnect();
+        }
+    }
+
+    /**
+     * Reads a channel reference, defining the channel id on first use.
+     * @param in Reader positioned at the reference.
+     * @return Channel name.
+     */
+    private String readChannelRef(BinaryReader in) {
+        if(this.inboundChannelIds == null) {
+            this.inboundChannelIds = new ArrayList<>();
+        }
+
+        int ref = in.readVarint32();
+        int id = ref >>> 1;
+        if((ref & 1) == 1) {
+            //New ids are dense, so a client can not make the table grow faster than it sends names.
+            if(id > this.inboundChannelIds.size()) {
+                throw new IllegalArgumentException("Channel id out of sequence.");
+            }
+
+            String channel = in.readString();
+            if(id == this.inboundChannelIds.size()) {
+                this.inboundChannelIds.add(channel);
+            } else {
+                this.inboundChannelIds.set(id, channel);
+            }
+
+            return channel;
+        }
+
+        if(id >= this.inboundChannelIds.size()) {
+            throw new IllegalArgumentException("Unknown channel id.");
+        }
+
+        return this.inboundChannelIds.get(id);
     }
 
     public boolean isClosed() {
@@ -203,10 +632,39 @@ public class Client implements Subscriber {
      * Unsubscribe from all channels.
      */
     public void onConnectionClosed() {
-        closed = true;
-        for(String channel : this.channels) {
-            Manager.unsubscribe(channel, this);
+        synchronized (this) {
+            if(closed) {
+                return;
+            }
+
+            closed = true;
+        }
+
+        this.outbound.close();
+        int[] ids;
+        synchronized (this.channels) {
+            ids = this.channels.toArray();
+            this.channels.clear();
+        }
+        for(int id : ids) {
+            Manager.unsubscribe(id, this);
+        }
+        ArrayList<String> patternList;
+        synchronized (this.patterns) {
+            patternList = new ArrayList<>(this.patterns);
+            this.patterns.clear();
+        }
+        for(String pattern : patternList) {
+            Manager.unsubscribePattern(pattern, this);
         }
         Manager.onClientClose(this);
     }
+
+    /**
+     * Closes the connection to the WebSocket client. (E.g. if it does not keep up with the sent frames)
+     */
+    public void disconnect() {
+        this.onConnectionClosed();
+        this.wscw.close();
+    }
 }
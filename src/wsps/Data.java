@@ -1,12 +1,24 @@
 package wsps;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.Base64;
+
+/**
+ * Value of an event, typed like the data strings of the WSPS documentation v1.0.
+ * Integers and floats of text clients are kept as numbers, not as the received text, so they are normalized
+ * when sent on: e.g. "i+5" and "i005" are relayed as "i5", "f1e3" as "f1000.0". Strings, JSON and bytes
+ * are relayed unchanged.
+ */
 public class Data {
     public enum Type {
         Null ('n'),
         Integer ('i'),
         Float ('f'),
         String ('s'),
-        JSONString ('j');
+        JSONString ('j'),
+        Binary ('b');
 
         protected char value;
 
@@ -25,6 +37,21 @@ public class Data {
     private String strHolder = null;
     private long intHolder = 0;
     private double fltHolder = 0.0;
+    private byte[] binHolder = null;
+    private String netHolder = null;
+
+    /**
+     * Shared Data objects of small integers, like Long.valueOf. (Their network string is built once)
+     */
+    private static final int CACHE_LOW = -128;
+    private static final int CACHE_HIGH = 1023;
+    private static final Data[] cache = new Data[CACHE_HIGH - CACHE_LOW + 1];
+
+    static {
+        for(int i = 0; i < cache.length; i++) {
+            cache[i] = new Data((long)(i + CACHE_LOW));
+        }
+    }
 
     /**
      * Initializes a new Data object by initial values parsed from the data string.
@@ -35,32 +62,194 @@ public class Data {
         return new Data(dataString, 0);
     }
 
-    //sigdif is just a filler value for the compiler to make a difference between String value and data string.
-    private Data(String unparsedDataString, int sigdif) {
-        strHolder = unparsedDataString.substring(1);
+    /**
+     * Initializes a new Data object by initial values parsed from the data string at the end of a message.
+     * (Integers are parsed in place without copying the message, so their original text is not kept)
+     * @param msg Message containing the data string.
+     * @param start Index of the data type character.
+     * @return
+     * @throws IllegalArgumentException If a number or base64 value is malformed.
+     */
+    public static Data fromDataString(String msg, int start) {
+        return new Data(msg, start);
+    }
 
-        switch(unparsedDataString.charAt(0)) {
+    //start is the index of the data type character, it also makes the difference between String value and data string.
+    private Data(String unparsedDataString, int start) {
+        switch(unparsedDataString.charAt(start)) {
             case 's':
                 type = Type.String;
+                strHolder = unparsedDataString.substring(start + 1);
                 break;
 
             case 'j':
                 type = Type.JSONString;
+                strHolder = unparsedDataString.substring(start + 1);
                 break;
 
             case 'i':
                 type = Type.Integer;
-                intHolder = Long.parseLong(strHolder);
+                intHolder = parseInt64(unparsedDataString, start + 1);
                 break;
 
             case 'f':
                 type = Type.Float;
-                fltHolder = Double.parseDouble(strHolder);
+                fltHolder = parseFloat64(unparsedDataString, start + 1);
+                break;
+
+            case 'b':
+                //Text clients send bytes base64 encoded.
+                type = Type.Binary;
+                binHolder = Base64.getDecoder().decode(unparsedDataString.substring(start + 1));
                 break;
 
             default:
                 type = Type.Null;
+                strHolder = unparsedDataString.substring(start + 1);
+                break;
+        }
+    }
+
+    /**
+     * Parses a decimal integer reaching to the end of the string. (Like Long.parseLong without substring)
+     * @param str String containing the integer.
+     * @param start Index of the first character.
+     * @return Parsed value.
+     */
+    private static long parseInt64(String str, int start) {
+        int end = str.length();
+        int i = start;
+        boolean negative = false;
+        if(i < end && (str.charAt(i) == '-' || str.charAt(i) == '+')) {
+            negative = str.charAt(i) == '-';
+            i++;
+        }
+
+        if(i >= end) {
+            throw new NumberFormatException("For input string: \"" + str.substring(start) + "\"");
+        }
+
+        //Accumulated negative, so Long.MIN_VALUE fits.
+        long limit = negative ? Long.MIN_VALUE : -Long.MAX_VALUE;
+        long result = 0;
+        for(; i < end; i++) {
+            int digit = str.charAt(i) - '0';
+            if(digit < 0 || digit > 9 || result < limit / 10 || result * 10 < limit + digit) {
+                throw new NumberFormatException("For input string: \"" + str.substring(start) + "\"");
+            }
+
+            result = result * 10 - digit;
+        }
+
+        return negative ? result : -result;
+    }
+
+    private static final double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    /**
+     * Parses a decimal float reaching to the end of the string. (Like Double.parseDouble without substring)
+     * Plain decimals with up to 15 significant digits are converted exactly in place,
+     * anything else falls back to Double.parseDouble.
+     * @param str String containing the float.
+     * @param start Index of the first character.
+     * @return Parsed value.
+     */
+    private static double parseFloat64(String str, int start) {
+        int end = str.length();
+        int i = start;
+        boolean negative = false;
+        if(i < end && (str.charAt(i) == '-' || str.charAt(i) == '+')) {
+            negative = str.charAt(i) == '-';
+            i++;
+        }
+
+        long mantissa = 0;
+        int digits = 0;
+        int scale = 0;
+        boolean dot = false;
+        boolean any = false;
+        for(; i < end; i++) {
+            char c = str.charAt(i);
+            if(c >= '0' && c <= '9') {
+                any = true;
+                if(mantissa == 0 && c == '0') {
+                    //Leading zeros are no significant digits.
+                } else if(++digits > 15) {
+                    return Double.parseDouble(str.substring(start));
+                } else {
+                    mantissa = mantissa * 10 + (c - '0');
+                }
+                if(dot) {
+                    scale++;
+                }
+            } else if(c == '.' && !dot) {
+                dot = true;
+            } else if((c == 'e' || c == 'E') && any) {
+                long exp;
+                try {
+                    exp = parseInt64(str, i + 1);
+                } catch (NumberFormatException e) {
+                    return Double.parseDouble(str.substring(start));
+                }
+                if(exp < -400 || exp > 400) {
+                    return Double.parseDouble(str.substring(start));
+                }
+                scale -= (int)exp;
                 break;
+            } else {
+                //NaN, Infinity, hex floats, type suffixes or garbage.
+                return Double.parseDouble(str.substring(start));
+            }
+        }
+
+        if(!any) {
+            return Double.parseDouble(str.substring(start));
+        }
+
+        //Exact: the mantissa fits 53 bits and powers of ten up to 22 are exact doubles, so one rounding only.
+        double value;
+        if(mantissa == 0) {
+            value = 0;
+        } else if(scale >= 0 && scale <= 22) {
+            value = mantissa / POWERS_OF_TEN[scale];
+        } else if(scale < 0 && scale >= -22) {
+            value = mantissa * POWERS_OF_TEN[-scale];
+        } else {
+            return Double.parseDouble(str.substring(start));
+        }
+
+        return negative ? -value : value;
+    }
+
+    /**
+     * Initializes a new Data object read from a binary message.
+     * @param in Reader positioned at the type byte.
+     * @return Data object.
+     */
+    public static Data fromBinary(BinaryReader in) {
+        switch(in.readByte()) {
+            case 's':
+                return new Data(in.readString());
+
+            case 'j':
+                Data data = new Data(in.readString());
+                data.type = Type.JSONString;
+                return data;
+
+            case 'i':
+                return new Data(in.readInt64());
+
+            case 'f':
+                return new Data(in.readFloat64());
+
+            case 'b':
+                return new Data(in.readBytes());
+
+            default:
+                return new Data();
         }
     }
 
@@ -78,6 +267,26 @@ public class Data {
         type = Type.JSONString;
     }
 
+    /**
+     * Initializes a new Data object holding raw bytes. Binary connections receive them as they are,
+     * text connections base64 encoded.
+     * @param val Bytes, kept without copying. Must not be modified afterwards.
+     */
+    public Data(byte[] val) {
+        binHolder = val;
+        type = Type.Binary;
+    }
+
+    /**
+     * Initializes a new Data object holding the remaining bytes of a buffer. (Copied, the buffer position is unchanged)
+     * @param val Buffer.
+     */
+    public Data(ByteBuffer val) {
+        binHolder = new byte[val.remaining()];
+        val.duplicate().get(binHolder);
+        type = Type.Binary;
+    }
+
     public Data(float val) {
         fltHolder = val;
         type = Type.Float;
@@ -108,6 +317,19 @@ public class Data {
         type = Type.Integer;
     }
 
+    /**
+     * Returns a Data object of an integer. Small integers share cached objects instead of allocating.
+     * @param val Integer value.
+     * @return Data object.
+     */
+    public static Data valueOf(long val) {
+        if(val >= CACHE_LOW && val <= CACHE_HIGH) {
+            return cache[(int)val - CACHE_LOW];
+        }
+
+        return new Data(val);
+    }
+
     public Type getType() {
         return type;
     }
@@ -129,12 +351,20 @@ public class Data {
     }
 
     /**
-     * Returns the Data as string. (Includes JSON)
+     * Returns the Data as string. (Includes JSON, bytes base64 encoded)
      * @return String or JSON String value.
      */
     public String toString() {
-        if(objHolder != null && strHolder == null) {
-            strHolder = objHolder.toJSONString();
+        if(strHolder == null) {
+            if(objHolder != null) {
+                strHolder = objHolder.toJSONString();
+            } else if(binHolder != null) {
+                strHolder = Base64.getEncoder().encodeToString(binHolder);
+            } else if(type == Type.Integer) {
+                strHolder = String.valueOf(intHolder);
+            } else if(type == Type.Float) {
+                strHolder = String.valueOf(fltHolder);
+            }
         }
 
         return strHolder;
@@ -148,6 +378,22 @@ public class Data {
         return objHolder;
     }
 
+    /**
+     * Returns the raw bytes.
+     * @return Bytes or null if the data is not binary. Must not be modified.
+     */
+    public byte[] toBytes() {
+        return binHolder;
+    }
+
+    /**
+     * Returns the raw bytes as read-only buffer.
+     * @return Buffer or null if the data is not binary.
+     */
+    public ByteBuffer toByteBuffer() {
+        return binHolder != null ? ByteBuffer.wrap(binHolder).asReadOnlyBuffer() : null;
+    }
+
     public float toFloat() {
         return (float)fltHolder;
     }
@@ -158,25 +404,158 @@ public class Data {
 
     /**
      * Converts the data back to a network string like defined in the WSPS documentation v1.0.
+     * (Converted on first call only)
      * @return Data string.
      */
     public String toNetworkString() {
-        String str = String.valueOf(type.value);
+        if(netHolder != null) {
+            return netHolder;
+        }
+
+        String str = appendNetworkString(new StringBuilder(networkLengthHint())).toString();
+        netHolder = str;
+        return str;
+    }
+
+    /**
+     * Returns a capacity hint for the network string, without converting objects to JSON.
+     * @return Expected length in characters.
+     */
+    int networkLengthHint() {
+        if(strHolder != null) {
+            return strHolder.length() + 1;
+        }
+
+        if(binHolder != null) {
+            return (binHolder.length + 2) / 3 * 4 + 1;
+        }
+
+        return objHolder != null ? 1024 : 25;
+    }
+
+    /**
+     * Streams the JSON of the object. (See JObject.writeJSON)
+     * @param out Appendable to write at.
+     */
+    private void writeJSON(Appendable out) {
+        try {
+            objHolder.writeJSON(out);
+        } catch (IOException e) {
+            //Only thrown by the appendable, ours write to memory.
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Appends the network string to a builder. Numbers are written as digits directly into the builder,
+     * no string is created for them. (Floats formatted like Double.toString)
+     * @param sb Builder to append at.
+     * @return The builder.
+     */
+    public StringBuilder appendNetworkString(StringBuilder sb) {
+        String net = netHolder;
+        if(net != null) {
+            return sb.append(net);
+        }
+
+        sb.append(type.value);
         switch (type) {
             case String:
             case JSONString:
-                str += toString();
+                if(objHolder != null && strHolder == null) {
+                    writeJSON(sb);
+                } else {
+                    sb.append(toString());
+                }
                 break;
 
             case Integer:
-                str += String.valueOf(toInt64());
+                sb.append(intHolder);
                 break;
 
             case Float:
-                str += String.valueOf(toDouble());
+                sb.append(fltHolder);
+                break;
+
+            case Binary:
+                sb.append(toString());
                 break;
         }
 
-        return str;
+        return sb;
+    }
+
+    /**
+     * Writes the UTF-8 encoded network string. Numbers are written as ASCII digits directly into the buffer.
+     * @param out Writer to write at.
+     */
+    public void writeNetworkString(BinaryWriter out) {
+        String net = netHolder;
+        if(net != null) {
+            out.writeUtf8(net);
+            return;
+        }
+
+        out.writeByte(type.value);
+        switch (type) {
+            case String:
+            case JSONString:
+                if(objHolder != null && strHolder == null) {
+                    writeJSON(out.utf8());
+                    out.endUtf8();
+                } else {
+                    out.writeUtf8(toString());
+                }
+                break;
+
+            case Integer:
+                out.writeDecimal(intHolder);
+                break;
+
+            case Float:
+                out.writeDecimal(fltHolder);
+                break;
+
+            case Binary:
+                //Base64 is ASCII, so its bytes are the UTF-8 encoding.
+                out.write(Base64.getEncoder().encode(binHolder));
+                break;
+        }
+    }
+
+    /**
+     * Writes the data in the binary protocol. (Type byte followed by the value)
+     * @param out Writer to write at.
+     */
+    public void writeBinary(BinaryWriter out) {
+        out.writeByte(type.value);
+        switch (type) {
+            case String:
+            case JSONString:
+                if(objHolder != null && strHolder == null) {
+                    //The length comes first, so the object is streamed into a scratch writer.
+                    BinaryWriter json = new BinaryWriter(256);
+                    writeJSON(json.utf8());
+                    json.endUtf8();
+                    out.writeVarint(json.size());
+                    out.write(json.buf, 0, json.size());
+                } else {
+                    out.writeString(toString());
+                }
+                break;
+
+            case Integer:
+                out.writeInt64(intHolder);
+                break;
+
+            case Float:
+                out.writeFloat64(fltHolder);
+                break;
+
+            case Binary:
+                //Sent as they are, no transcoding.
+                out.writeBytes(binHolder);
+                break;
+        }
     }
 }
@@ -5,6 +5,20 @@ public class Event {
     protected Object sender;
     protected Sender sentBy;
     protected Range range;
+    protected long seq = -1;
+
+    /**
+     * Whether the channel conflates, taken over by the frame. (See Channel.setConflating)
+     */
+    boolean conflate = false;
+
+    private volatile Frame frame = null;
+
+    /**
+     * Event of the current thread free for reuse. (See acquire)
+     */
+    private static final ThreadLocal<Event> pool = new ThreadLocal<>();
+    private boolean pooled = false;
 
     /**
      * Initialize new event object.
@@ -13,10 +27,63 @@ public class Event {
      * @param range The data reach range.
      */
     public Event(Data data, Object sender, Range range) {
+        this(data, sender, range, false);
+    }
+
+    /**
+     * Initialize new event object.
+     * @param data Published data to contain.
+     * @param sender Publishing object.
+     * @param range The data reach range.
+     * @param conflate Whether the channel published at conflates.
+     */
+    Event(Data data, Object sender, Range range, boolean conflate) {
         this.data = data;
         this.sender = sender;
         this.sentBy = (sender instanceof Client ? Sender.Client : Sender.Server);
         this.range = range;
+        this.conflate = conflate;
+    }
+
+    /**
+     * Returns an event for a publish, reusing the thread's free event if there is one.
+     * Only for subscribers not keeping the event after notify returns. (Clients keep the frame only)
+     * @param data Published data to contain.
+     * @param sender Publishing object.
+     * @param range The data reach range.
+     * @param conflate Whether the channel published at conflates.
+     * @return Event to hand back by release.
+     */
+    static Event acquire(Data data, Object sender, Range range, boolean conflate) {
+        Event event = pool.get();
+        if(event == null) {
+            event = new Event(data, sender, range, conflate);
+            event.pooled = true;
+            return event;
+        }
+
+        //Taken out, so a nested publish on this thread gets its own event.
+        pool.set(null);
+        event.data = data;
+        event.sender = sender;
+        event.sentBy = (sender instanceof Client ? Sender.Client : Sender.Server);
+        event.range = range;
+        event.conflate = conflate;
+        return event;
+    }
+
+    /**
+     * Hands an acquired event back for reuse by the next publish of this thread.
+     */
+    void release() {
+        if(!this.pooled) {
+            return;
+        }
+
+        this.data = null;
+        this.sender = null;
+        this.frame = null;
+        pool.set(this);
     }
 
     /**
@@ -50,5 +117,32 @@ public class Event {
     public Range getRange() {
         return range;
     }
-}
 
+    /**
+     * Returns the sequence number in the channel's replay buffer.
+     * @return Sequence number or -1 if the channel keeps no replay buffer.
+     */
+    public long getSequence() {
+        return this.seq;
+    }
+
+    /**
+     * Returns the frame sent to WebSocket clients. (Built once per event and shared by all clients)
+     * @param channel Channel name data was published at.
+     * @return Publish frame.
+     */
+    public Frame getFrame(String channel) {
+        Frame f = this.frame;
+        if(f == null || !channel.equals(f.getChannel())) {
+            if(this.seq >= 0) {
+                f = Frame.publish(channel, this.seq, this.range, this.data);
+            } else {
+                f = Frame.publish(channel, this.range, this.data);
+                f.conflate = this.conflate;
+            }
+            this.frame = f;
+        }
+
+        return f;
+    }
+}
@@ -0,0 +1,391 @@
+package wsps;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Map;
+
+/**
+ * A message sent to WebSocket clients. Encoded once and shared by all receiving clients.
+ *
+ * In the binary protocol a frame starts with its operation byte:
+ * publish "p" channel range data, subscribe "s" / unsubscribe "u" / pattern subscribe "S" / pattern unsubscribe "U"
+ * count (name)*, batch "b" count (length frame)*, sequenced publish "q" seq channel range data, gap "g" seq channel.
+ * Channels are referenced by a varint: (id &lt;&lt; 1) | 1 followed by the name defines the id on first use,
+ * (id &lt;&lt; 1) refers to an already defined id. Each connection and direction has its own ids.
+ */
+public class Frame {
+    public static final char PUBLISH = 'p';
+    public static final char SUBSCRIBE = 's';
+    public static final char UNSUBSCRIBE = 'u';
+    public static final char PATTERN_SUBSCRIBE = 'S';
+    public static final char PATTERN_UNSUBSCRIBE = 'U';
+    public static final char BATCH = 'b';
+    public static final char BINARY = 'B';
+    public static final char SEQUENCED_PUBLISH = 'q';
+    public static final char RESUME = 'r';
+    public static final char GAP = 'g';
+
+    protected final char op;
+    protected final String channel;
+    protected final Range range;
+    protected final Data data;
+    protected final ArrayList<String> channels;
+    protected final long seq;
+
+    /**
+     * Whether a pending frame of the same channel is replaced by this one instead of queueing both.
+     * (Set before the frame is shared, see Channel.setConflating)
+     */
+    boolean conflate = false;
+
+    private volatile String text;
+    private volatile byte[] utf8 = null;
+    private volatile byte[] payload = null;
+    private volatile int byteLength = -1;
+    private volatile int binaryLength = -1;
+
+    /**
+     * Initializes a new frame by its network string.
+     * @param text Message like defined in the WSPS documentation v1.0.
+     */
+    public Frame(String text) {
+        this.op = text.length() > 0 ? text.charAt(0) : 0;
+        this.text = text;
+        this.channel = null;
+        this.range = null;
+        this.data = null;
+        this.channels = null;
+        this.seq = -1;
+    }
+
+    /**
+     * Initializes a new frame by its content. (The network string is built on first use)
+     * @param op Operation character.
+     * @param channel Channel name the data was published at or null.
+     * @param range How far the data was published or null.
+     * @param data Published data or null.
+     * @param channels Subscribed or unsubscribed channel names or null.
+     */
+    protected Frame(char op, String channel, Range range, Data data, ArrayList<String> channels) {
+        this(op, channel, range, data, channels, -1);
+    }
+
+    /**
+     * Initializes a new frame by its content. (The network string is built on first use)
+     * @param op Operation character.
+     * @param channel Channel name the data was published at or null.
+     * @param range How far the data was published or null.
+     * @param data Published data or null.
+     * @param channels Subscribed or unsubscribed channel names or null.
+     * @param seq Sequence number in the channel or -1.
+     */
+    protected Frame(char op, String channel, Range range, Data data, ArrayList<String> channels, long seq) {
+        this.op = op;
+        this.text = null;
+        this.channel = channel;
+        this.range = range;
+        this.data = data;
+        this.channels = channels;
+        this.seq = seq;
+    }
+
+    /**
+     * Builds the publish frame of data published at a channel.
+     * @param channel Channel name data was published at.
+     * @param range How far the data was published.
+     * @param data Published data.
+     * @return Publish frame.
+     */
+    public static Frame publish(String channel, Range range, Data data) {
+        return new Frame(PUBLISH, channel, range, data, null);
+    }
+
+    /**
+     * Builds the publish frame of data published at a channel keeping a replay buffer.
+     * @param channel Channel name data was published at.
+     * @param seq Sequence number of the data in the channel.
+     * @param range How far the data was published.
+     * @param data Published data.
+     * @return Sequenced publish frame.
+     */
+    public static Frame publish(String channel, long seq, Range range, Data data) {
+        return new Frame(SEQUENCED_PUBLISH, channel, range, data, null, seq);
+    }
+
+    /**
+     * Builds the frame telling a resuming client, that the events it missed are not available anymore.
+     * @param channel Channel name.
+     * @param seq Sequence number of the last event published at the channel. (Live events continue after it)
+     * @return Gap frame.
+     */
+    public static Frame gap(String channel, long seq) {
+        return new Frame(GAP, channel, null, null, null, seq);
+    }
+
+    /**
+     * Builds the frame telling the client, that the server subscribes channels.
+     * @param channels Channel names.
+     * @return Subscribe frame.
+     */
+    public static Frame subscribe(ArrayList<String> channels) {
+        return new Frame(SUBSCRIBE, null, null, null, channels);
+    }
+
+    /**
+     * Builds the frame telling the client, that the server unsubscribed channels.
+     * @param channels Channel names.
+     * @return Unsubscribe frame.
+     */
+    public static Frame unsubscribe(ArrayList<String> channels) {
+        return new Frame(UNSUBSCRIBE, null, null, null, channels);
+    }
+
+    /**
+     * Builds the frame telling the client, that the server subscribes patterns. (See PatternTable)
+     * @param patterns Patterns.
+     * @return Pattern subscribe frame.
+     */
+    public static Frame subscribePatterns(ArrayList<String> patterns) {
+        return new Frame(PATTERN_SUBSCRIBE, null, null, null, patterns);
+    }
+
+    /**
+     * Builds the frame telling the client, that the server unsubscribed patterns.
+     * @param patterns Patterns.
+     * @return Pattern unsubscribe frame.
+     */
+    public static Frame unsubscribePatterns(ArrayList<String> patterns) {
+        return new Frame(PATTERN_UNSUBSCRIBE, null, null, null, patterns);
+    }
+
+    /**
+     * Returns the operation character. (First character of the network string)
+     * @return Operation.
+     */
+    public char getOp() {
+        return this.op;
+    }
+
+    /**
+     * Returns the channel name the message was published at.
+     * @return Channel name or null if the frame is no publish frame.
+     */
+    public String getChannel() {
+        return this.channel;
+    }
+
+    /**
+     * Returns the sequence number of the published data in its channel.
+     * @return Sequence number or -1 if the frame is not sequenced.
+     */
+    public long getSequence() {
+        return this.seq;
+    }
+
+    /**
+     * Returns the message as string.
+     * @return Network string.
+     */
+    public String getText() {
+        String str = this.text;
+        if(str == null) {
+            if(op == PUBLISH || op == SEQUENCED_PUBLISH) {
+                StringBuilder sb = new StringBuilder(channel.length() + data.networkLengthHint() + 32);
+                sb.append(op);
+                if(op == SEQUENCED_PUBLISH) {
+                    sb.append(seq).append(':');
+                }
+                sb.append(range.value).append(channel.length()).append(':').append(channel);
+                str = data.appendNetworkString(sb).toString();
+            } else if(op == GAP) {
+                str = GAP + Long.toString(seq) + ':' + channel;
+            } else {
+                str = op + Channel.stringifyChannelNames(channels);
+            }
+
+            this.text = str;
+        }
+
+        return str;
+    }
+
+    /**
+     * Returns the message UTF-8 encoded. (Encoded on first call only)
+     * @return UTF-8 bytes of the network string. Must not be modified.
+     */
+    public byte[] getBytes() {
+        byte[] bytes = this.utf8;
+        if(bytes == null) {
+            if(this.text == null && (op == PUBLISH || op == SEQUENCED_PUBLISH)) {
+                //Encoded straight into bytes, numbers without any string in between.
+                BinaryWriter w = new BinaryWriter(channel.length() * 3 + 48);
+                w.writeByte(op);
+                if(op == SEQUENCED_PUBLISH) {
+                    w.writeDecimal(seq).writeByte(':');
+                }
+                w.writeByte('0' + range.value).writeDecimal(channel.length()).writeByte(':').writeUtf8(channel);
+                data.writeNetworkString(w);
+                bytes = w.toByteArray();
+            } else {
+                bytes = this.getText().getBytes(StandardCharsets.UTF_8);
+            }
+            this.utf8 = bytes;
+        }
+
+        return bytes;
+    }
+
+    /**
+     * Returns the length of the UTF-8 encoded message without encoding it. (Counted on first call only)
+     * @return Bytes of the network string.
+     */
+    public int getByteLength() {
+        int n = this.byteLength;
+        if(n < 0) {
+            byte[] bytes = this.utf8;
+            if(bytes != null) {
+                n = bytes.length;
+            } else {
+                n = utf8Length(this.getText());
+            }
+            this.byteLength = n;
+        }
+
+        return n;
+    }
+
+    /**
+     * Returns the UTF-8 encoded length of a string without encoding it.
+     * @param str String.
+     * @return Length in bytes.
+     */
+    static int utf8Length(String str) {
+        int n = str.length();
+        for(int i = 0; i < str.length(); i++) {
+            char c = str.charAt(i);
+            if(c >= 0x80) {
+                if(c < 0x800) {
+                    n += 1;
+                } else if(Character.isHighSurrogate(c) && i + 1 < str.length() && Character.isLowSurrogate(str.charAt(i + 1))) {
+                    n += 2;
+                    i++;
+                } else {
+                    n += 2;
+                }
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Returns the length of the frame in the binary protocol without building its network string.
+     * The channel reference is counted as a definition, so the length is an upper bound. (Counted on first call only)
+     * @return Maximum bytes written by writeBinary.
+     */
+    public int getBinaryLength() {
+        int n = this.binaryLength;
+        if(n >= 0) {
+            return n;
+        }
+
+        n = 1;
+        switch(op) {
+            case GAP:
+            case SEQUENCED_PUBLISH:
+            case PUBLISH:
+                int name = utf8Length(channel);
+                n += 5 + BinaryWriter.varintSize(name) + name;
+                if(op != PUBLISH) {
+                    n += BinaryWriter.varintSize(seq);
+                }
+                if(op != GAP) {
+                    n += this.getPayload().length;
+                }
+                break;
+
+            case SUBSCRIBE:
+            case UNSUBSCRIBE:
+            case PATTERN_SUBSCRIBE:
+            case PATTERN_UNSUBSCRIBE:
+                n += BinaryWriter.varintSize(channels.size());
+                for(String str : channels) {
+                    int length = utf8Length(str);
+                    n += BinaryWriter.varintSize(length) + length;
+                }
+                break;
+        }
+
+        this.binaryLength = n;
+        return n;
+    }
+
+    /**
+     * Writes the frame in the binary protocol.
+     * The part following the channel reference is encoded once and shared by all clients.
+     * @param out Writer to write at.
+     * @param channelIds Channel ids already defined at this connection. (Updated with new definitions)
+     */
+    public void writeBinary(BinaryWriter out, Map<String, Integer> channelIds) {
+        out.writeByte(op);
+        switch(op) {
+            case GAP:
+                out.writeVarint(seq);
+                writeChannelRef(out, channelIds);
+                break;
+
+            case SEQUENCED_PUBLISH:
+            case PUBLISH:
+                if(op == SEQUENCED_PUBLISH) {
+                    out.writeVarint(seq);
+                }
+                writeChannelRef(out, channelIds);
+
+                out.write(this.getPayload());
+                break;
+
+            case SUBSCRIBE:
+            case UNSUBSCRIBE:
+            case PATTERN_SUBSCRIBE:
+            case PATTERN_UNSUBSCRIBE:
+                out.writeVarint(channels.size());
+                for(String name : channels) {
+                    out.writeString(name);
+                }
+                break;
+        }
+    }
+
+    /**
+     * Returns the binary encoded part of a publish frame following the channel reference. (Encoded on first call only)
+     * @return Range and data bytes. Must not be modified.
+     */
+    private byte[] getPayload() {
+        byte[] bytes = this.payload;
+        if(bytes == null) {
+            BinaryWriter w = new BinaryWriter(32);
+            w.writeByte(range.value);
+            data.writeBinary(w);
+            bytes = w.toByteArray();
+            this.payload = bytes;
+        }
+
+        return bytes;
+    }
+
+    private void writeChannelRef(BinaryWriter out, Map<String, Integer> channelIds) {
+        Integer id = channelIds.get(channel);
+        if(id == null) {
+            id = channelIds.size();
+            channelIds.put(channel, id);
+            out.writeVarint(((long)id << 1) | 1);
+            out.writeString(channel);
+        } else {
+            out.writeVarint((long)id << 1);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return this.getText();
+    }
+}
@@ -0,0 +1,112 @@
+package wsps;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Distribution of non-negative values in power of two buckets. Recording is lock-free on striped counters,
+ * so threads recording at the same time don't contend.
+ * Bucket 0 counts the value 0, bucket i counts the values from 2^(i-1) to 2^i - 1.
+ */
+public class Histogram {
+    public static final int BUCKETS = 64;
+
+    private final LongAdder[] buckets = new LongAdder[BUCKETS];
+    private final LongAdder sum = new LongAdder();
+
+    /**
+     * Initializes a new empty histogram.
+     */
+    public Histogram() {
+        for(int i = 0; i < BUCKETS; i++) {
+            this.buckets[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Records a value.
+     * @param value Value. (Negative values count as 0)
+     */
+    public void record(long value) {
+        if(value < 0) {
+            value = 0;
+        }
+
+        this.buckets[Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(value))].increment();
+        this.sum.add(value);
+    }
+
+    /**
+     * Returns the amount of values in each bucket.
+     * @return Counts by bucket index.
+     */
+    public long[] getCounts() {
+        long[] counts = new long[BUCKETS];
+        for(int i = 0; i < BUCKETS; i++) {
+            counts[i] = this.buckets[i].sum();
+        }
+        return counts;
+    }
+
+    /**
+     * Returns the amount of recorded values.
+     * @return Count.
+     */
+    public long getCount() {
+        long count = 0;
+        for(LongAdder bucket : this.buckets) {
+            count += bucket.sum();
+        }
+        return count;
+    }
+
+    /**
+     * Returns the sum of recorded values.
+     * @return Sum.
+     */
+    public long getSum() {
+        return this.sum.sum();
+    }
+
+    /**
+     * Returns the average of recorded values.
+     * @return Mean, 0 if nothing was recorded.
+     */
+    public double getMean() {
+        long count = this.getCount();
+        return count > 0 ? (double)this.getSum() / count : 0;
+    }
+
+    /**
+     * Returns an upper bound of a quantile. (Precise to a factor of 2)
+     * @param q Quantile from 0 to 1, e.g. 0.99.
+     * @return Upper end of the bucket containing the quantile, 0 if nothing was recorded.
+     */
+    public long getQuantile(double q) {
+        long[] counts = this.getCounts();
+        long count = 0;
+        for(long c : counts) {
+            count += c;
+        }
+
+        long rank = (long)Math.ceil(q * count);
+        long seen = 0;
+        for(int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if(seen >= rank && seen > 0) {
+                return i == 0 ? 0 : (i >= 63 ? Long.MAX_VALUE : (1L << i) - 1);
+            }
+        }
+
+        return 0;
+    }
+
+    /**
+     * Clears all recorded values. (Values recorded at the same time may be kept)
+     */
+    public void reset() {
+        for(LongAdder bucket : this.buckets) {
+            bucket.reset();
+        }
+        this.sum.reset();
+    }
+}
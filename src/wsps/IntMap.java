@@ -0,0 +1,154 @@
+package wsps;
+
+import java.util.Arrays;
+
+/**
+ * Map of non-negative int keys, like channel ids, to values. Open addressing with linear probing,
+ * like IntSet, so keys aren't boxed. Not thread-safe.
+ * @param <V> Value type.
+ */
+public class IntMap<V> {
+    private static final int EMPTY = -1;
+
+    private int[] keys = new int[4];
+    private Object[] values = new Object[4];
+    private int size = 0;
+
+    public IntMap() {
+        Arrays.fill(this.keys, EMPTY);
+    }
+
+    /**
+     * Returns the amount of entries.
+     * @return Size.
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Returns the value of a key.
+     * @param key Key.
+     * @return Value, null if not contained.
+     */
+    @SuppressWarnings("unchecked")
+    public V get(int key) {
+        if(key < 0) {
+            return null;
+        }
+
+        int mask = this.keys.length - 1;
+        for(int i = index(key, mask); ; i = (i + 1) & mask) {
+            int k = this.keys[i];
+            if(k == key) {
+                return (V)this.values[i];
+            }
+            if(k == EMPTY) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Sets the value of a key.
+     * @param key Non-negative key.
+     * @param value Value.
+     * @return Previous value, null if not contained.
+     */
+    @SuppressWarnings("unchecked")
+    public V put(int key, V value) {
+        if(key < 0) {
+            throw new IllegalArgumentException("Key must not be negative.");
+        }
+
+        if((this.size + 1) * 2 > this.keys.length) {
+            this.rehash(this.keys.length << 1);
+        }
+
+        int mask = this.keys.length - 1;
+        int i = index(key, mask);
+        for(int k; (k = this.keys[i]) != EMPTY; i = (i + 1) & mask) {
+            if(k == key) {
+                V old = (V)this.values[i];
+                this.values[i] = value;
+                return old;
+            }
+        }
+
+        this.keys[i] = key;
+        this.values[i] = value;
+        this.size++;
+        return null;
+    }
+
+    /**
+     * Removes a key.
+     * @param key Key.
+     * @return Removed value, null if not contained.
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(int key) {
+        if(key < 0) {
+            return null;
+        }
+
+        int mask = this.keys.length - 1;
+        int i = index(key, mask);
+        for(int k; (k = this.keys[i]) != key; i = (i + 1) & mask) {
+            if(k == EMPTY) {
+                return null;
+            }
+        }
+
+        V old = (V)this.values[i];
+        //Shifts the following entries of the probe sequence back instead of leaving a tombstone. (See IntSet)
+        for(int j = (i + 1) & mask; this.keys[j] != EMPTY; j = (j + 1) & mask) {
+            int home = index(this.keys[j], mask);
+            if(((j - home) & mask) >= ((j - i) & mask)) {
+                this.keys[i] = this.keys[j];
+                this.values[i] = this.values[j];
+                i = j;
+            }
+        }
+
+        this.keys[i] = EMPTY;
+        this.values[i] = null;
+        this.size--;
+        return old;
+    }
+
+    /**
+     * Removes all entries and releases the memory.
+     */
+    public void clear() {
+        this.keys = new int[4];
+        this.values = new Object[4];
+        Arrays.fill(this.keys, EMPTY);
+        this.size = 0;
+    }
+
+    private void rehash(int capacity) {
+        int[] oldKeys = this.keys;
+        Object[] oldValues = this.values;
+        this.keys = new int[capacity];
+        this.values = new Object[capacity];
+        Arrays.fill(this.keys, EMPTY);
+        int mask = capacity - 1;
+        for(int n = 0; n < oldKeys.length; n++) {
+            int k = oldKeys[n];
+            if(k != EMPTY) {
+                int i = index(k, mask);
+                while(this.keys[i] != EMPTY) {
+                    i = (i + 1) & mask;
+                }
+                this.keys[i] = k;
+                this.values[i] = oldValues[n];
+            }
+        }
+    }
+
+    private static int index(int key, int mask) {
+        int h = key * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+}
@@ -0,0 +1,153 @@
+package wsps;
+
+import java.util.Arrays;
+
+/**
+ * Set of non-negative ints, like channel ids. Open addressing with linear probing,
+ * so it grows with the amount of elements instead of the highest one. Not thread-safe.
+ */
+public class IntSet {
+    private static final int EMPTY = -1;
+
+    private int[] slots = new int[4];
+    private int size = 0;
+
+    public IntSet() {
+        Arrays.fill(this.slots, EMPTY);
+    }
+
+    /**
+     * Returns the amount of elements.
+     * @return Size.
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Returns whether the set contains a value.
+     * @param value Value.
+     * @return TRUE if contained.
+     */
+    public boolean contains(int value) {
+        if(value < 0) {
+            return false;
+        }
+
+        int mask = this.slots.length - 1;
+        for(int i = index(value, mask); ; i = (i + 1) & mask) {
+            int v = this.slots[i];
+            if(v == value) {
+                return true;
+            }
+            if(v == EMPTY) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Adds a value.
+     * @param value Non-negative value.
+     * @return FALSE if already contained.
+     */
+    public boolean add(int value) {
+        if(value < 0) {
+            throw new IllegalArgumentException("Value must not be negative.");
+        }
+
+        if((this.size + 1) * 2 > this.slots.length) {
+            this.rehash(this.slots.length << 1);
+        }
+
+        int mask = this.slots.length - 1;
+        int i = index(value, mask);
+        for(int v; (v = this.slots[i]) != EMPTY; i = (i + 1) & mask) {
+            if(v == value) {
+                return false;
+            }
+        }
+
+        this.slots[i] = value;
+        this.size++;
+        return true;
+    }
+
+    /**
+     * Removes a value.
+     * @param value Value.
+     * @return FALSE if not contained.
+     */
+    public boolean remove(int value) {
+        if(value < 0) {
+            return false;
+        }
+
+        int mask = this.slots.length - 1;
+        int i = index(value, mask);
+        for(int v; (v = this.slots[i]) != value; i = (i + 1) & mask) {
+            if(v == EMPTY) {
+                return false;
+            }
+        }
+
+        //Shifts the following entries of the probe sequence back instead of leaving a tombstone.
+        for(int j = (i + 1) & mask; this.slots[j] != EMPTY; j = (j + 1) & mask) {
+            int home = index(this.slots[j], mask);
+            if(((j - home) & mask) >= ((j - i) & mask)) {
+                this.slots[i] = this.slots[j];
+                i = j;
+            }
+        }
+
+        this.slots[i] = EMPTY;
+        this.size--;
+        return true;
+    }
+
+    /**
+     * Removes all values and releases the memory.
+     */
+    public void clear() {
+        this.slots = new int[4];
+        Arrays.fill(this.slots, EMPTY);
+        this.size = 0;
+    }
+
+    /**
+     * Returns the values in no particular order.
+     * @return Values.
+     */
+    public int[] toArray() {
+        int[] values = new int[this.size];
+        int n = 0;
+        for(int v : this.slots) {
+            if(v != EMPTY) {
+                values[n++] = v;
+            }
+        }
+        return values;
+    }
+
+    private void rehash(int capacity) {
+        int[] old = this.slots;
+        this.slots = new int[capacity];
+        Arrays.fill(this.slots, EMPTY);
+        int mask = capacity - 1;
+        for(int v : old) {
+            if(v != EMPTY) {
+                int i = index(v, mask);
+                while(this.slots[i] != EMPTY) {
+                    i = (i + 1) & mask;
+                }
+                this.slots[i] = v;
+            }
+        }
+    }
+
+    private static int index(int value, int mask) {
+        //Dense ids would cluster without mixing.
+        int h = value * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+}
@@ -1,9 +1,21 @@
 package wsps;
 
+import java.io.IOException;
+
 public interface JObject {
     /**
      * Converts the object to a json string.
      * @return
      */
     public String toJSONString();
+
+    /**
+     * Writes the object as json. Override it to stream large objects without building the whole string.
+     * (The data of a publish is written once and shared by all receiving clients)
+     * @param out Appendable to write at.
+     * @throws IOException If the appendable failed.
+     */
+    public default void writeJSON(Appendable out) throws IOException {
+        out.append(this.toJSONString());
+    }
 }
@@ -1,13 +1,806 @@
 package wsps;
 
+import java.lang.reflect.Method;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
 
 public class Manager {
-    protected static Map<String, Channel> channels = new HashMap<>();
-    protected static ArrayList<Client> clients = new ArrayList<>();
-    protected static ArrayList<String> channelList = new ArrayList<>();
+    protected static ChannelTable channels = new ChannelTable();
+    protected static Set<Client> clients = ConcurrentHashMap.newKeySet();
+    protected static ChannelSnapshot channelList = new ChannelSnapshot();
+    protected static PatternTable patterns = new PatternTable();
+    protected static Set<String> patternList = new LinkedHashSet<>();
+
+    /**
+     * Unregistered channel objects of names only subscribed through patterns, with the pattern table version
+     * they were matched at. Cleared when full, so publishing at arbitrary names can't grow it.
+     */
+    private static final int PATTERN_CHANNEL_LIMIT = 4096;
+    private static final ConcurrentHashMap<String, MatchedChannel> patternChannels = new ConcurrentHashMap<>();
+
+    private static class MatchedChannel {
+        final Channel channel;
+        final long version;
+
+        MatchedChannel(Channel channel, long version) {
+            this.channel = channel;
+            this.version = version;
+        }
+    }
+    protected static final RetainedCache retainedCache = new RetainedCache();
+    protected static final Metrics metrics = new Metrics();
+
+    /**
+     * Serializes the subscribe/unsubscribe announcements to the clients, guards channelList, patternList
+     * and the changes of patterns.
+     * Publishing never takes this lock.
+     */
+    private static final Object interestLock = new Object();
+    private static final Set<Channel> pendingInterest = new LinkedHashSet<>();
+    private static boolean interestFlushScheduled = false;
+    private static volatile long interestFlushInterval = 0;
+    private static volatile long unsubscribeGracePeriod = 0;
+
+    private static volatile Shard[] shards = null;
+    private static volatile Executor writerExecutor = null;
+    private static volatile Executor subscriberExecutor = null;
+    private static volatile boolean asyncSubscribers = false;
+    private static volatile int parallelFanOutThreshold = 0;
+    private static volatile ForkJoinPool fanOutPool = null;
+    private static volatile ScheduledExecutorService scheduler = null;
+    private static volatile RateLimit clientPublishLimit = null;
+    private static volatile RateLimit channelPublishLimit = null;
+    private static final LongAdder rejectedPublishes = new LongAdder();
+
+    /**
+     * Maximum threads of the default writer pool if the runtime has no virtual threads.
+     */
+    public static final int MAX_WRITER_THREADS = Math.max(16, Runtime.getRuntime().availableProcessors() * 8);
+    public static final long DEFAULT_WRITE_TIMEOUT = 10000;
+    private static volatile long writeTimeout = DEFAULT_WRITE_TIMEOUT;
+    private static boolean writeWatchdog = false;
+
+    /**
+     * Returns the executor sending the queued frames to the clients.
+     * (By default one virtual thread per task if the runtime supports them, otherwise a pool of daemon threads
+     * growing up to MAX_WRITER_THREADS and shrinking when idle. Clients blocking a writer for longer than the
+     * write timeout are disconnected, so stalled sockets can't hold the pool)
+     * @return Writer executor.
+     */
+    public static Executor getWriterExecutor() {
+        Executor executor = writerExecutor;
+        if(executor == null) {
+            synchronized (Manager.class) {
+                executor = writerExecutor;
+                if(executor == null) {
+                    try {
+                        Method virtual = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+                        executor = (Executor)virtual.invoke(null);
+                    } catch (ReflectiveOperationException e) {
+                        ThreadPoolExecutor pool = new ThreadPoolExecutor(MAX_WRITER_THREADS, MAX_WRITER_THREADS,
+                                60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+                            Thread t = new Thread(r, "wsps-writer");
+                            t.setDaemon(true);
+                            return t;
+                        });
+                        pool.allowCoreThreadTimeOut(true);
+                        executor = pool;
+                    }
+                    writerExecutor = executor;
+                }
+            }
+        }
+
+        return executor;
+    }
+
+    /**
+     * Returns the milliseconds a single write to a client may block before the client is disconnected.
+     * @return Write timeout, 0 if disabled.
+     */
+    public static long getWriteTimeout() {
+        return writeTimeout;
+    }
+
+    /**
+     * Sets the milliseconds a single write to a client may block before the client is disconnected.
+     * Closing the connection releases the writer blocked on it. (Checked once a second)
+     * @param millis Write timeout, 0 to disable. (Default DEFAULT_WRITE_TIMEOUT)
+     */
+    public static void setWriteTimeout(long millis) {
+        if(millis < 0) {
+            throw new IllegalArgumentException("Write timeout must not be negative.");
+        }
+
+        writeTimeout = millis;
+    }
+
+    /**
+     * Starts checking the clients for stalled writes. (Once, on the first client)
+     */
+    private static void startWriteWatchdog() {
+        synchronized (Manager.class) {
+            if(writeWatchdog) {
+                return;
+            }
+            writeWatchdog = true;
+        }
+
+        getScheduler().scheduleWithFixedDelay(() -> {
+            long timeout = writeTimeout;
+            if(timeout <= 0) {
+                return;
+            }
+
+            long now = System.nanoTime();
+            for(Client c : clients) {
+                if(c.outbound.isStalled(now, TimeUnit.MILLISECONDS.toNanos(timeout))) {
+                    metrics.onWriteTimeout();
+                    //On the timer, the writers may all be blocked.
+                    c.disconnect();
+                }
+            }
+        }, 1, 1, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Returns whether server-side subscribers are notified asynchronously.
+     * @return TRUE if enabled.
+     */
+    public static boolean isAsyncSubscriberDispatch() {
+        return asyncSubscribers;
+    }
+
+    /**
+     * Enables notifying server-side subscribers (all subscribers except clients) on the subscriber executor,
+     * so blocking subscribers do not delay the publisher and the clients of the channel.
+     * Notifications of a subscriber at a channel keep their order.
+     * @param enabled TRUE to notify asynchronously, FALSE to notify on the publishing thread. (Default)
+     */
+    public static void setAsyncSubscriberDispatch(boolean enabled) {
+        asyncSubscribers = enabled;
+    }
+
+    /**
+     * Returns the executor notifying server-side subscribers if async subscriber dispatch is enabled.
+     * (By default one virtual thread per task if the runtime supports them, otherwise a cached pool of daemon threads)
+     * @return Subscriber executor.
+     */
+    public static Executor getSubscriberExecutor() {
+        Executor executor = subscriberExecutor;
+        if(executor == null) {
+            synchronized (Manager.class) {
+                executor = subscriberExecutor;
+                if(executor == null) {
+                    try {
+                        Method virtual = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+                        executor = (Executor)virtual.invoke(null);
+                    } catch (ReflectiveOperationException e) {
+                        executor = Executors.newCachedThreadPool(r -> {
+                            Thread t = new Thread(r, "wsps-subscriber");
+                            t.setDaemon(true);
+                            return t;
+                        });
+                    }
+                    subscriberExecutor = executor;
+                }
+            }
+        }
+
+        return executor;
+    }
+
+    /**
+     * Sets the executor notifying server-side subscribers if async subscriber dispatch is enabled.
+     * @param executor Subscriber executor.
+     */
+    public static void setSubscriberExecutor(Executor executor) {
+        subscriberExecutor = executor;
+    }
+
+    /**
+     * Returns the subscriber count from which a publish notifies the subscribers in parallel.
+     * @return Threshold, 0 if disabled.
+     */
+    public static int getParallelFanOutThreshold() {
+        return parallelFanOutThreshold;
+    }
+
+    /**
+     * Sets the subscriber count from which a publish splits the subscribers into chunks notified in parallel
+     * on the fan-out pool. Smaller channels are notified on the publishing thread.
+     * The publish still returns after all subscribers were notified.
+     * @param threshold Minimum subscriber count, 0 to disable. (Default)
+     */
+    public static void setParallelFanOutThreshold(int threshold) {
+        if(threshold < 0) {
+            throw new IllegalArgumentException("Threshold must not be negative.");
+        }
+
+        parallelFanOutThreshold = threshold;
+    }
+
+    /**
+     * Returns the pool notifying the subscribers of large channels in parallel.
+     * @return Fan-out pool. (By default the common pool)
+     */
+    public static ForkJoinPool getFanOutPool() {
+        ForkJoinPool pool = fanOutPool;
+        return pool != null ? pool : ForkJoinPool.commonPool();
+    }
+
+    /**
+     * Sets the pool notifying the subscribers of large channels in parallel.
+     * @param pool Fan-out pool or null for the common pool.
+     */
+    public static void setFanOutPool(ForkJoinPool pool) {
+        fanOutPool = pool;
+    }
+
+    /**
+     * Returns the timer used for delayed work like flushing coalesced frames.
+     * Scheduled tasks must be short, they should hand off longer work to another executor.
+     * @return Single daemon thread scheduler.
+     */
+    public static ScheduledExecutorService getScheduler() {
+        ScheduledExecutorService executor = scheduler;
+        if(executor == null) {
+            synchronized (Manager.class) {
+                executor = scheduler;
+                if(executor == null) {
+                    scheduler = executor = Executors.newSingleThreadScheduledExecutor(r -> {
+                        Thread t = new Thread(r, "wsps-timer");
+                        t.setDaemon(true);
+                        return t;
+                    });
+                }
+            }
+        }
+
+        return executor;
+    }
+
+    /**
+     * Sets the executor sending the queued frames to the clients.
+     * @param executor Writer executor.
+     */
+    public static void setWriterExecutor(Executor executor) {
+        writerExecutor = executor;
+    }
+
+    /**
+     * Partitions the channels across single-threaded shards by their name hash.
+     * Subscriber changes and publishes then run asynchronously on the event loop of the channel's shard,
+     * which keeps them in order per channel. Call it at startup, before clients connect.
+     * @param count Amount of shards, 0 to run everything on the calling thread. (Default)
+     */
+    public static void setShardCount(int count) {
+        if(count < 0) {
+            throw new IllegalArgumentException("Shard count must not be negative.");
+        }
+
+        Shard[] next = null;
+        if(count > 0) {
+            next = new Shard[count];
+            for(int i = 0; i < count; i++) {
+                next[i] = new Shard(i);
+            }
+        }
+
+        Shard[] old;
+        synchronized (Manager.class) {
+            old = shards;
+            shards = next;
+        }
+
+        if(old != null) {
+            for(Shard shard : old) {
+                shard.shutdown();
+            }
+        }
+    }
+
+    /**
+     * Returns the amount of shards.
+     * @return Amount of shards, 0 if not sharded.
+     */
+    public static int getShardCount() {
+        Shard[] s = shards;
+        return s != null ? s.length : 0;
+    }
+
+    /**
+     * Returns the shard owning a channel.
+     * @param shards Shards.
+     * @param ch Channel.
+     * @return Shard.
+     */
+    private static Shard shardOf(Shard[] shards, Channel ch) {
+        int h = ch.hash ^ (ch.hash >>> 16);
+        return shards[(h & 0x7FFFFFFF) % shards.length];
+    }
+
+    /**
+     * Runs an action on the shard owning a channel, or inline if not sharded.
+     * @param ch Channel.
+     * @param action Action to run.
+     */
+    protected static void dispatch(Channel ch, Runnable action) {
+        Shard[] s = shards;
+        if(s == null) {
+            action.run();
+        } else {
+            shardOf(s, ch).execute(action);
+        }
+    }
+
+    /**
+     * Splits channels by their shards and runs an action once per shard with its channels, or inline if not sharded.
+     * @param chs Channels.
+     * @param action Action to run.
+     */
+    protected static void dispatch(ArrayList<Channel> chs, Consumer<ArrayList<Channel>> action) {
+        Shard[] s = shards;
+        if(s == null) {
+            action.accept(chs);
+            return;
+        }
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        ArrayList<Channel>[] parts = new ArrayList[s.length];
+        for(Channel ch : chs) {
+            Shard shard = shardOf(s, ch);
+            if(parts[shard.getIndex()] == null) {
+                parts[shard.getIndex()] = new ArrayList<>();
+            }
+            parts[shard.getIndex()].add(ch);
+        }
+
+        for(int i = 0; i < parts.length; i++) {
+            ArrayList<Channel> part = parts[i];
+            if(part != null) {
+                s[i].execute(() -> action.accept(part));
+            }
+        }
+    }
+
+    /**
+     * Returns the channel object, creates it if not existing yet.
+     * @param channel Channel name.
+     * @return Channel object.
+     */
+    protected static Channel channel(String channel) {
+        return channels.intern(channel);
+    }
+
+    /**
+     * Returns the channel object of the channel name in a part of a string, without copying the name.
+     * @param str String containing the channel name. (Commas may be escaped with a backslash)
+     * @param start Index of the first character.
+     * @param end Index after the last character.
+     * @return Channel object or null if nobody ever subscribed the channel.
+     */
+    protected static Channel findChannel(String str, int start, int end) {
+        int esc = str.indexOf('\\', start);
+        if(esc >= 0 && esc < end) {
+            return publishChannel(Channel.unescapeChannelName(str, start, end));
+        }
+
+        Channel ch = channels.get(str, start, end);
+        if(ch == null && patterns.size() > 0) {
+            return publishChannel(str.substring(start, end));
+        }
+
+        return ch;
+    }
+
+    /**
+     * Returns the channel object to publish at. A channel only subscribed through a pattern gets an
+     * unregistered channel object, so publishing at arbitrary names does not grow the channel table.
+     * It is cached with its matches until the pattern table changes.
+     * @param channel Channel name.
+     * @return Channel object or null if nobody subscribed the channel.
+     */
+    protected static Channel publishChannel(String channel) {
+        Channel ch = channels.get(channel);
+        if(ch != null || patterns.size() == 0) {
+            return ch;
+        }
+
+        //Read before matching, so an entry matched during a change is matched again next time.
+        long version = patterns.getVersion();
+        MatchedChannel mc = patternChannels.get(channel);
+        if(mc != null && mc.version == version) {
+            return mc.channel;
+        }
+
+        Subscriber[] matched = patterns.match(channel);
+        if(matched.length == 0) {
+            if(mc != null) {
+                patternChannels.remove(channel, mc);
+            }
+            return null;
+        }
+
+        if(patternChannels.size() >= PATTERN_CHANNEL_LIMIT) {
+            patternChannels.clear();
+        }
+
+        ch = Channel.matched(channel, matched);
+        patternChannels.put(channel, new MatchedChannel(ch, version));
+        return ch;
+    }
+
+    /**
+     * Drops the cached pattern matches of the registered channels a changed pattern matches.
+     * (Unregistered ones are matched again as the pattern table version changed)
+     * @param pattern Subscribed or unsubscribed pattern.
+     */
+    private static void invalidatePattern(String pattern) {
+        for(int id = 0; id < channels.size(); id++) {
+            Channel ch = channels.get(id);
+            if(ch != null && PatternTable.matches(pattern, ch.getName())) {
+                ch.invalidateDelivery();
+            }
+        }
+    }
+
+    /**
+     * Returns the id of a channel. The id stays the same for the whole runtime,
+     * use it for channels published at very often to skip the name lookup.
+     * @param channel Channel name.
+     * @return Channel id.
+     */
+    public static int channelId(String channel) {
+        return channels.intern(channel).getId();
+    }
+
+    /**
+     * Returns the name of a channel id.
+     * @param channelId Channel id.
+     * @return Channel name or null if the id is not assigned.
+     */
+    public static String channelName(int channelId) {
+        Channel ch = channels.get(channelId);
+        return ch != null ? ch.getName() : null;
+    }
+
+    /**
+     * Returns the limit of publish messages per client.
+     * @return Rate limit or null if unlimited.
+     */
+    public static RateLimit getClientPublishLimit() {
+        return clientPublishLimit;
+    }
+
+    /**
+     * Limits the publish messages each client may send. Checked before the message is parsed,
+     * messages over the limit are dropped. (A message publishing at several channels counts once)
+     * @param limit Rate limit or null for unlimited. (Default)
+     */
+    public static void setClientPublishLimit(RateLimit limit) {
+        clientPublishLimit = limit;
+    }
+
+    /**
+     * Returns the limit of publishes per client and channel.
+     * @return Rate limit or null if unlimited.
+     */
+    public static RateLimit getChannelPublishLimit() {
+        return channelPublishLimit;
+    }
+
+    /**
+     * Limits how often each client may publish at the same channel. Publishes over the limit are dropped
+     * before the subscribers are notified.
+     * @param limit Rate limit or null for unlimited. (Default)
+     */
+    public static void setChannelPublishLimit(RateLimit limit) {
+        channelPublishLimit = limit;
+    }
+
+    /**
+     * Returns the amount of client publishes dropped by the publish limits of all clients.
+     * @return Rejected publishes.
+     */
+    public static long getRejectedPublishCount() {
+        return rejectedPublishes.sum();
+    }
+
+    /**
+     * Counts a publish dropped by a publish limit.
+     */
+    static void onPublishRejected() {
+        rejectedPublishes.increment();
+    }
+
+    /**
+     * Enables or disables keeping the last published value of a channel for new subscribers.
+     * Retained values of all channels are bound by the retained cache budget.
+     * @param channel Channel name.
+     * @param retain TRUE to retain.
+     */
+    public static void setRetained(String channel, boolean retain) {
+        if(retain) {
+            channels.intern(channel).setRetaining(true);
+        } else {
+            Channel ch = channels.get(channel);
+            if(ch != null) {
+                ch.setRetaining(false);
+            }
+        }
+    }
+
+    /**
+     * Returns whether the last published value of a channel is kept for new subscribers.
+     * @param channel Channel name.
+     * @return TRUE if retaining.
+     */
+    public static boolean isRetained(String channel) {
+        Channel ch = channels.get(channel);
+        return ch != null && ch.isRetaining();
+    }
+
+    /**
+     * Enables or disables replacing a client's pending event of a channel by newer ones.
+     * (See Channel.setConflating)
+     * @param channel Channel name.
+     * @param conflate TRUE to conflate.
+     */
+    public static void setConflating(String channel, boolean conflate) {
+        if(conflate) {
+            channels.intern(channel).setConflating(true);
+        } else {
+            Channel ch = channels.get(channel);
+            if(ch != null) {
+                ch.setConflating(false);
+            }
+        }
+    }
+
+    /**
+     * Sets the amount of recent events of a channel kept for resuming clients. (See Channel.setReplayCapacity)
+     * @param channel Channel name.
+     * @param capacity Amount of events, 0 to disable.
+     */
+    public static void setReplayCapacity(String channel, int capacity) {
+        if(capacity > 0) {
+            channels.intern(channel).setReplayCapacity(capacity);
+        } else {
+            Channel ch = channels.get(channel);
+            if(ch != null) {
+                ch.setReplayCapacity(capacity);
+            }
+        }
+    }
+
+    /**
+     * Returns the metrics of the publish and subscribe paths.
+     * @return Metrics.
+     */
+    public static Metrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Returns the memory bound of the retained values of all channels.
+     * @return Retained cache.
+     */
+    public static RetainedCache getRetainedCache() {
+        return retainedCache;
+    }
+
+    /**
+     * Returns the interval subscribe/unsubscribe announcements are collected for.
+     * @return Milliseconds, 0 if announced immediately.
+     */
+    public static long getInterestFlushInterval() {
+        return interestFlushInterval;
+    }
+
+    /**
+     * Collects the first subscriber / last subscriber transitions of channels for an interval,
+     * then tells each client about them with one subscribe and one unsubscribe frame.
+     * Transitions cancelling each other within the interval are not announced at all.
+     * (The client causing a transition is told about it as well)
+     * @param millis Milliseconds, 0 to announce immediately. (Default)
+     */
+    public static void setInterestFlushInterval(long millis) {
+        if(millis < 0) {
+            throw new IllegalArgumentException("Interval must not be negative.");
+        }
+
+        interestFlushInterval = millis;
+        if(millis == 0) {
+            flushInterest();
+        }
+    }
+
+    /**
+     * Returns how long an emptied channel stays announced as subscribed.
+     * @return Milliseconds, 0 if unsubscribed channels are announced right away.
+     */
+    public static long getUnsubscribeGracePeriod() {
+        return unsubscribeGracePeriod;
+    }
+
+    /**
+     * Delays announcing a channel as unsubscribed after its last subscriber left.
+     * If a subscriber returns within the grace period, the clients are not told anything,
+     * so channels flapping between zero and one subscriber (e.g. on page reloads) do not cause broadcast storms.
+     * @param millis Milliseconds, 0 to announce right away. (Default)
+     */
+    public static void setUnsubscribeGracePeriod(long millis) {
+        if(millis < 0) {
+            throw new IllegalArgumentException("Grace period must not be negative.");
+        }
+
+        unsubscribeGracePeriod = millis;
+    }
+
+    /**
+     * Tells the clients about channels, whose subscribed state differs from the announced one.
+     * (Emptied channels are deferred by the unsubscribe grace period)
+     * @param changed Channels which had a first subscriber / last subscriber transition.
+     * @param subscriber Subscribing object which caused the transition or null. (Will not be told about it)
+     */
+    protected static void announce(ArrayList<Channel> changed, Subscriber subscriber) {
+        long grace = unsubscribeGracePeriod;
+        if(grace > 0) {
+            ArrayList<Channel> now = new ArrayList<>(changed.size());
+            synchronized (interestLock) {
+                for(Channel ch : changed) {
+                    if(ch.getSubscriberCount() > 0 || !ch.announced) {
+                        now.add(ch);
+                        continue;
+                    }
+
+                    ch.emptiedAt = System.nanoTime();
+                    if(!ch.graceScheduled) {
+                        ch.graceScheduled = true;
+                        getScheduler().schedule(() -> graceExpired(ch), grace, TimeUnit.MILLISECONDS);
+                    }
+                }
+            }
+
+            if(now.isEmpty()) {
+                return;
+            }
+            changed = now;
+        }
+
+        announceNow(changed, subscriber);
+    }
+
+    /**
+     * Announces an emptied channel after its grace period, unless it got a subscriber again.
+     * @param ch Channel.
+     */
+    private static void graceExpired(Channel ch) {
+        synchronized (interestLock) {
+            if(ch.getSubscriberCount() > 0) {
+                ch.graceScheduled = false;
+                return;
+            }
+
+            //Emptied again while waiting, wait for the rest of the new grace period.
+            long remaining = TimeUnit.MILLISECONDS.toNanos(unsubscribeGracePeriod) - (System.nanoTime() - ch.emptiedAt);
+            if(remaining > 0) {
+                getScheduler().schedule(() -> graceExpired(ch), remaining, TimeUnit.NANOSECONDS);
+                return;
+            }
+
+            ch.graceScheduled = false;
+        }
+
+        ArrayList<Channel> changed = new ArrayList<>(1);
+        changed.add(ch);
+        announceNow(changed, null);
+    }
+
+    /**
+     * Tells the clients about channels, whose subscribed state differs from the announced one.
+     * (Deferred to the next flush if an interest flush interval is set)
+     * @param changed Channels which had a first subscriber / last subscriber transition.
+     * @param subscriber Subscribing object which caused the transition or null. (Will not be told about it)
+     */
+    private static void announceNow(ArrayList<Channel> changed, Subscriber subscriber) {
+        long interval = interestFlushInterval;
+        if(interval <= 0) {
+            synchronized (interestLock) {
+                broadcastInterest(changed, subscriber);
+            }
+            return;
+        }
+
+        synchronized (interestLock) {
+            pendingInterest.addAll(changed);
+            if(interestFlushScheduled) {
+                return;
+            }
+            interestFlushScheduled = true;
+        }
+
+        getScheduler().schedule(Manager::flushInterest, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Announces the collected transitions.
+     */
+    protected static void flushInterest() {
+        synchronized (interestLock) {
+            interestFlushScheduled = false;
+            if(pendingInterest.isEmpty()) {
+                return;
+            }
+
+            ArrayList<Channel> changed = new ArrayList<>(pendingInterest);
+            pendingInterest.clear();
+            broadcastInterest(changed, null);
+        }
+    }
+
+    /**
+     * Sends the channels whose subscribed state differs from the announced one to the clients. (Holding interestLock)
+     * The current state is read under the lock, so concurrent transitions can not be announced in the wrong order.
+     * @param changed Channels which had a first subscriber / last subscriber transition.
+     * @param subscriber Subscribing object which caused the transition or null. (Will not be told about it)
+     */
+    private static void broadcastInterest(ArrayList<Channel> changed, Subscriber subscriber) {
+        ArrayList<String> added = new ArrayList<>();
+        ArrayList<String> removed = new ArrayList<>();
+        for(Channel ch : changed) {
+            boolean active = ch.getSubscriberCount() > 0;
+            if(active != ch.announced) {
+                ch.announced = active;
+                if(active) {
+                    channelList.add(ch.getName());
+                    added.add(ch.getName());
+                } else {
+                    channelList.remove(ch.getName());
+                    removed.add(ch.getName());
+                }
+            }
+        }
+
+        Frame subscribed = added.size() > 0 ? Frame.subscribe(added) : null;
+        Frame unsubscribed = removed.size() > 0 ? Frame.unsubscribe(removed) : null;
+        if(subscribed == null && unsubscribed == null) {
+            return;
+        }
+
+        if(subscribed != null) {
+            metrics.onInterestBroadcast(true);
+        }
+        if(unsubscribed != null) {
+            metrics.onInterestBroadcast(false);
+        }
+
+        for(Client c : clients) {
+            if(c.isClosed()) {
+                continue;
+            }
+
+            if(subscribed != null && c != subscriber) {
+                c.send(subscribed);
+            }
+
+            if(unsubscribed != null) {
+                c.send(unsubscribed);
+            }
+        }
+    }
 
     /**
      * Subscribe a channel.
@@ -15,20 +808,50 @@ public class Manager {
      * @param subscriber Subscribing object to notify at.
      */
     public static void subscribe(String channel, Subscriber subscriber) {
-        if(!channels.containsKey(channel)) {
-            channels.put(channel, new Channel(channel));
+        Manager.subscribe(channel(channel), subscriber);
+    }
+
+    /**
+     * Subscribe a channel.
+     * @param channelId Channel id to subscribe.
+     * @param subscriber Subscribing object to notify at.
+     */
+    public static void subscribe(int channelId, Subscriber subscriber) {
+        Channel ch = channels.get(channelId);
+        if(ch != null) {
+            Manager.subscribe(ch, subscriber);
         }
+    }
 
-        if(channels.get(channel).getSubscribers().size() <= 0) {
-            channelList.add(channel);
-            for (Client c : clients) {
-                if(c != subscriber && !c.isClosed()) {
-                    c.subscribe(channel);
-                }
+    /**
+     * Subscribe a channel object.
+     * @param ch Channel to subscribe.
+     * @param subscriber Subscribing object to notify at.
+     */
+    protected static void subscribe(Channel ch, Subscriber subscriber) {
+        dispatch(ch, () -> {
+            if(ch.addSubscriber(subscriber)) {
+                ArrayList<Channel> changed = new ArrayList<>(1);
+                changed.add(ch);
+                announce(changed, subscriber);
             }
-        }
+        });
+    }
 
-        channels.get(channel).addSubscriber(subscriber);
+    /**
+     * Subscribe a reconnecting client to a channel, sending it the events it missed. (See Channel.resume)
+     * @param ch Channel to resume.
+     * @param client Resuming client.
+     * @param seq Sequence number of the last event the client received.
+     */
+    protected static void resume(Channel ch, Client client, long seq) {
+        dispatch(ch, () -> {
+            if(ch.resume(client, seq)) {
+                ArrayList<Channel> changed = new ArrayList<>(1);
+                changed.add(ch);
+                announce(changed, client);
+            }
+        });
     }
 
     /**
@@ -37,25 +860,75 @@ public class Manager {
      * @param subscriber Subscribing object to notify at.
      */
     public static void subscribe(ArrayList<String> channelsList, Subscriber subscriber) {
-        ArrayList<String> newChannels = new ArrayList<>();
+        ArrayList<Channel> chs = new ArrayList<>(channelsList.size());
         for(String channel : channelsList) {
-            if (!channels.containsKey(channel)) {
-                channels.put(channel, new Channel(channel));
+            chs.add(channel(channel));
+        }
+
+        dispatch(chs, part -> {
+            ArrayList<Channel> newChannels = new ArrayList<>();
+            for(Channel ch : part) {
+                if(ch.addSubscriber(subscriber)) {
+                    newChannels.add(ch);
+                }
+            }
 
+            if(newChannels.size() > 0) {
+                announce(newChannels, subscriber);
             }
+        });
+    }
 
-            if(channels.get(channel).getSubscribers().size() <= 0) {
-                channelList.add(channel);
-                newChannels.add(channel);
+    /**
+     * Subscribe all channels matching a pattern. (See PatternTable for the wildcards)
+     * @param pattern Pattern to subscribe.
+     * @param subscriber Subscribing object to notify at.
+     * @throws IllegalArgumentException If the pattern is invalid.
+     */
+    public static void subscribePattern(String pattern, Subscriber subscriber) {
+        synchronized (interestLock) {
+            long version = patterns.getVersion();
+            boolean first = patterns.add(pattern, subscriber);
+            if(patterns.getVersion() != version) {
+                invalidatePattern(pattern);
             }
 
-            channels.get(channel).addSubscriber(subscriber);
+            if(first && patternList.add(pattern)) {
+                ArrayList<String> added = new ArrayList<>(1);
+                added.add(pattern);
+                Frame frame = Frame.subscribePatterns(added);
+                metrics.onInterestBroadcast(true);
+                for(Client c : clients) {
+                    if(c != subscriber && !c.isClosed()) {
+                        c.send(frame);
+                    }
+                }
+            }
         }
+    }
+
+    /**
+     * Unsubscribe a pattern.
+     * @param pattern Pattern to unsubscribe.
+     * @param subscriber Subscribed object to identify and unsubscribe.
+     */
+    public static void unsubscribePattern(String pattern, Subscriber subscriber) {
+        synchronized (interestLock) {
+            long version = patterns.getVersion();
+            boolean last = patterns.remove(pattern, subscriber);
+            if(patterns.getVersion() != version) {
+                invalidatePattern(pattern);
+            }
 
-        if(newChannels.size() > 0) {
-            for (Client c : clients) {
-                if (c != subscriber && !c.isClosed()) {
-                    c.subscribe(newChannels);
+            if(last && patternList.remove(pattern)) {
+                ArrayList<String> removed = new ArrayList<>(1);
+                removed.add(pattern);
+                Frame frame = Frame.unsubscribePatterns(removed);
+                metrics.onInterestBroadcast(false);
+                for(Client c : clients) {
+                    if(!c.isClosed()) {
+                        c.send(frame);
+                    }
                 }
             }
         }
@@ -67,40 +940,65 @@ public class Manager {
      * @param subscriber Subscribed object to identify and unsubscribe.
      */
     public static void unsubscribe(String channel, Subscriber subscriber) {
-        if(channels.containsKey(channel)) {
-            channels.get(channel).removeSubscriber(subscriber);
-            if(channels.get(channel).getSubscribers().size() <= 0) {
-                channelList.remove(channelList.indexOf(channel));
-
-                for (Client c : clients) {
-                    if(!c.isClosed())
-                        c.unsubscribe(channel);
-                }
-            }
+        Channel ch = channels.get(channel);
+        if(ch != null) {
+            Manager.unsubscribe(ch, subscriber);
+        }
+    }
+
+    /**
+     * Unsubscribe a channel.
+     * @param channelId Channel id to unsubscribe.
+     * @param subscriber Subscribed object to identify and unsubscribe.
+     */
+    public static void unsubscribe(int channelId, Subscriber subscriber) {
+        Channel ch = channels.get(channelId);
+        if(ch != null) {
+            Manager.unsubscribe(ch, subscriber);
         }
     }
 
+    /**
+     * Unsubscribe a channel object.
+     * @param ch Channel to unsubscribe.
+     * @param subscriber Subscribed object to identify and unsubscribe.
+     */
+    protected static void unsubscribe(Channel ch, Subscriber subscriber) {
+        dispatch(ch, () -> {
+            if(ch.removeSubscriber(subscriber)) {
+                ArrayList<Channel> changed = new ArrayList<>(1);
+                changed.add(ch);
+                announce(changed, null);
+            }
+        });
+    }
+
     /**
      * Unsubscribe channels.
      * @param channelsList Channel names to unsubscribe.
      * @param subscriber Subscribed object to identify and unsubscribe.
      */
     public static void unsubscribe(ArrayList<String> channelsList, Subscriber subscriber) {
-        ArrayList<String> emptyChannels = new ArrayList<>();
+        ArrayList<Channel> chs = new ArrayList<>(channelsList.size());
         for(String channel : channelsList) {
-            if (channels.containsKey(channel)) {
-                channels.get(channel).removeSubscriber(subscriber);
-                if(channels.get(channel).getSubscribers().size() <= 0) {
-                    channelList.remove(channelList.indexOf(channel));
-                    emptyChannels.add(channel);
-                }
+            Channel ch = channels.get(channel);
+            if(ch != null) {
+                chs.add(ch);
             }
         }
 
-        for (Client c : clients) {
-            if(!c.isClosed())
-                c.unsubscribe(emptyChannels);
-        }
+        dispatch(chs, part -> {
+            ArrayList<Channel> emptyChannels = new ArrayList<>();
+            for(Channel ch : part) {
+                if(ch.removeSubscriber(subscriber)) {
+                    emptyChannels.add(ch);
+                }
+            }
+
+            if(emptyChannels.size() > 0) {
+                announce(emptyChannels, null);
+            }
+        });
     }
 
     /**
@@ -111,11 +1009,122 @@ public class Manager {
      * @param range How far to publish the data.
      */
     public static void publish(String channel, Data eventData, Object sender, Range range) {
-        if(channels.containsKey(channel) && channels.get(channel).getSubscribers().size() > 0) {
-            channels.get(channel).notify(eventData, sender, range);
+        Channel ch = publishChannel(channel);
+        if(ch != null) {
+            Manager.publish(ch, eventData, sender, range);
+        }
+    }
+
+    /**
+     * Publish data to a channel.
+     * @param channelId Channel id to publish at. (See channelId)
+     * @param eventData Data to publish to subscribers.
+     * @param sender Publishing object.
+     * @param range How far to publish the data.
+     */
+    public static void publish(int channelId, Data eventData, Object sender, Range range) {
+        Channel ch = channels.get(channelId);
+        if(ch != null) {
+            Manager.publish(ch, eventData, sender, range);
+        }
+    }
+
+    /**
+     * Publish data to a channel.
+     * @param channelId Channel id to publish at. (See channelId)
+     * @param eventData Data to publish to subscribers.
+     * @param range How far to publish the data.
+     */
+    public static void publish(int channelId, Data eventData, Range range) {
+        Manager.publish(channelId, eventData, null, range);
+    }
+
+    /**
+     * Publish data to a channel.
+     * @param channelId Channel id to publish at. (See channelId)
+     * @param eventData Data to publish to subscribers.
+     */
+    public static void publish(int channelId, Data eventData) {
+        Manager.publish(channelId, eventData, null, Range.ServerOnly);
+    }
+
+    /**
+     * Publish data to a channel object.
+     * @param channel Channel to publish at.
+     * @param eventData Data to publish to subscribers.
+     * @param sender Publishing object.
+     * @param range How far to publish the data.
+     */
+    protected static void publish(Channel channel, Data eventData, Object sender, Range range) {
+        Shard[] s = shards;
+        if(s == null) {
+            channel.notify(eventData, sender, range);
+        } else {
+            shardOf(s, channel).execute(() -> channel.notify(eventData, sender, range));
+        }
+    }
+
+    /**
+     * Publish an integer to a channel object. Nothing is allocated if the channel has no subscribers,
+     * small integers share cached Data objects. (See Data.valueOf)
+     * @param channel Channel to publish at or null.
+     * @param val Integer to publish to subscribers.
+     * @param sender Publishing object.
+     * @param range How far to publish the data.
+     */
+    protected static void publish(Channel channel, long val, Object sender, Range range) {
+        if(channel == null) {
+            return;
+        }
+
+        if(channel.isDeliverable()) {
+            Manager.publish(channel, Data.valueOf(val), sender, range);
+        } else {
+            metrics.onPublish(channel, 0, 0);
+        }
+    }
+
+    /**
+     * Publish a float to a channel object. Nothing is allocated if the channel has no subscribers.
+     * @param channel Channel to publish at or null.
+     * @param val Float to publish to subscribers.
+     * @param sender Publishing object.
+     * @param range How far to publish the data.
+     */
+    protected static void publish(Channel channel, double val, Object sender, Range range) {
+        if(channel == null) {
+            return;
+        }
+
+        if(channel.isDeliverable()) {
+            Manager.publish(channel, new Data(val), sender, range);
+        } else {
+            metrics.onPublish(channel, 0, 0);
         }
     }
 
+    /**
+     * Publish an integer to a channel by id. (No name lookup, see channelId)
+     * @param channelId Channel id.
+     * @param val Integer to publish to subscribers.
+     * @param sender Publishing object.
+     * @param range How far to publish the data.
+     */
+    public static void publish(int channelId, long val, Object sender, Range range) {
+        Manager.publish(channels.get(channelId), val, sender, range);
+    }
+
+    /**
+     * Publish a float to a channel by id. (No name lookup, see channelId)
+     * @param channelId Channel id.
+     * @param val Float to publish to subscribers.
+     * @param sender Publishing object.
+     * @param range How far to publish the data.
+     */
+    public static void publish(int channelId, double val, Object sender, Range range) {
+        Manager.publish(channels.get(channelId), val, sender, range);
+    }
+
     /**
      * Publish data to a channel.
      * @param channel Channel name to publish at.
@@ -124,7 +1133,7 @@ public class Manager {
      * @param range How far to publish the data.
      */
     public static void publish(String channel, long val, Object sender, Range range) {
-        Manager.publish(channel, new Data(val), sender, range);
+        Manager.publish(publishChannel(channel), val, sender, range);
     }
 
     /**
@@ -135,7 +1144,7 @@ public class Manager {
      * @param range How far to publish the data.
      */
     public static void publish(String channel, int val, Object sender, Range range) {
-        Manager.publish(channel, new Data(val), sender, range);
+        Manager.publish(channel, (long)val, sender, range);
     }
 
     /**
@@ -146,7 +1155,7 @@ public class Manager {
      * @param range How far to publish the data.
      */
     public static void publish(String channel, short val, Object sender, Range range) {
-        Manager.publish(channel, new Data(val), sender, range);
+        Manager.publish(channel, (long)val, sender, range);
     }
 
     /**
@@ -157,7 +1166,7 @@ public class Manager {
      * @param range How far to publish the data.
      */
     public static void publish(String channel, byte val, Object sender, Range range) {
-        Manager.publish(channel, new Data(val), sender, range);
+        Manager.publish(channel, (long)val, sender, range);
     }
 
     /**
@@ -171,6 +1180,17 @@ public class Manager {
         Manager.publish(channel, new Data(val), sender, range);
     }
 
+    /**
+     * Publish data to a channel.
+     * @param channel Channel name to publish at.
+     * @param val Raw bytes to publish to subscribers. (Base64 encoded for text clients)
+     * @param sender Publishing object.
+     * @param range How far to publish the data.
+     */
+    public static void publish(String channel, byte[] val, Object sender, Range range) {
+        Manager.publish(channel, new Data(val), sender, range);
+    }
+
     /**
      * Publish data to a channel.
      * @param channel Channel name to publish at.
@@ -190,7 +1210,7 @@ public class Manager {
      * @param range How far to publish the data.
      */
     public static void publish(String channel, float val, Object sender, Range range) {
-        Manager.publish(channel, new Data(val), sender, range);
+        Manager.publish(channel, (double)val, sender, range);
     }
 
     /**
@@ -201,7 +1221,7 @@ public class Manager {
      * @param range How far to publish the data.
      */
     public static void publish(String channel, double val, Object sender, Range range) {
-        Manager.publish(channel, new Data(val), sender, range);
+        Manager.publish(publishChannel(channel), val, sender, range);
     }
 
     /**
@@ -212,7 +1232,7 @@ public class Manager {
      * @param range How far to publish the data.
      */
     public static void publish(ArrayList<String> channelsList, long val, Object sender, Range range) {
-        Manager.publish(channelsList, new Data(val), sender, range);
+        Manager.publish(channelsList, Data.valueOf(val), sender, range);
     }
 
     /**
@@ -223,7 +1243,7 @@ public class Manager {
      * @param range How far to publish the data.
      */
     public static void publish(ArrayList<String> channelsList, int val, Object sender, Range range) {
-        Manager.publish(channelsList, new Data(val), sender, range);
+        Manager.publish(channelsList, Data.valueOf(val), sender, range);
     }
 
     /**
@@ -234,7 +1254,7 @@ public class Manager {
      * @param range How far to publish the data.
      */
     public static void publish(ArrayList<String> channelsList, short val, Object sender, Range range) {
-        Manager.publish(channelsList, new Data(val), sender, range);
+        Manager.publish(channelsList, Data.valueOf(val), sender, range);
     }
 
     /**
@@ -245,7 +1265,7 @@ public class Manager {
      * @param range How far to publish the data.
      */
     public static void publish(ArrayList<String> channelsList, byte val, Object sender, Range range) {
-        Manager.publish(channelsList, new Data(val), sender, range);
+        Manager.publish(channelsList, Data.valueOf(val), sender, range);
     }
 
     /**
@@ -259,6 +1279,17 @@ public class Manager {
         Manager.publish(channelsList, new Data(val), sender, range);
     }
 
+    /**
+     * Publish data to channels.
+     * @param channelsList Channel names to publish at.
+     * @param val Raw bytes to publish to subscribers. (Base64 encoded for text clients)
+     * @param sender Publishing object.
+     * @param range How far to publish the data.
+     */
+    public static void publish(ArrayList<String> channelsList, byte[] val, Object sender, Range range) {
+        Manager.publish(channelsList, new Data(val), sender, range);
+    }
+
     /**
      * Publish data to channels.
      * @param channelsList Channel names to publish at.
@@ -300,7 +1331,7 @@ public class Manager {
      * @param sender Publishing object.
      */
     public static void publish(String channel, long val, Object sender) {
-        Manager.publish(channel, new Data(val), sender, Range.All);
+        Manager.publish(channel, val, sender, Range.All);
     }
 
     /**
@@ -310,7 +1341,7 @@ public class Manager {
      * @param sender Publishing object.
      */
     public static void publish(String channel, int val, Object sender) {
-        Manager.publish(channel, new Data(val), sender, Range.All);
+        Manager.publish(channel, val, sender, Range.All);
     }
 
     /**
@@ -320,7 +1351,7 @@ public class Manager {
      * @param sender Publishing object.
      */
     public static void publish(String channel, short val, Object sender) {
-        Manager.publish(channel, new Data(val), sender, Range.All);
+        Manager.publish(channel, val, sender, Range.All);
     }
 
     /**
@@ -330,7 +1361,7 @@ public class Manager {
      * @param sender Publishing object.
      */
     public static void publish(String channel, byte val, Object sender) {
-        Manager.publish(channel, new Data(val), sender, Range.All);
+        Manager.publish(channel, val, sender, Range.All);
     }
 
     /**
@@ -343,6 +1374,16 @@ public class Manager {
         Manager.publish(channel, new Data(val), sender, Range.All);
     }
 
+    /**
+     * Publish data to a channel.
+     * @param channel Channel name to publish at.
+     * @param val Raw bytes to publish to subscribers. (Base64 encoded for text clients)
+     * @param sender Publishing object.
+     */
+    public static void publish(String channel, byte[] val, Object sender) {
+        Manager.publish(channel, new Data(val), sender, Range.All);
+    }
+
     /**
      * Publish data to a channel.
      * @param channel Channel name to publish at.
@@ -360,7 +1401,7 @@ public class Manager {
      * @param sender Publishing object.
      */
     public static void publish(String channel, float val, Object sender) {
-        Manager.publish(channel, new Data(val), sender);
+        Manager.publish(channel, (double)val, sender, Range.ServerOnly);
     }
 
     /**
@@ -370,7 +1411,7 @@ public class Manager {
      * @param sender Publishing object.
      */
     public static void publish(String channel, double val, Object sender) {
-        Manager.publish(channel, new Data(val), sender, Range.All);
+        Manager.publish(channel, val, sender, Range.All);
     }
 
     /**
@@ -380,7 +1421,7 @@ public class Manager {
      * @param sender Publishing object.
      */
     public static void publish(ArrayList<String> channelsList, long val, Object sender) {
-        Manager.publish(channelsList, new Data(val), sender, Range.All);
+        Manager.publish(channelsList, Data.valueOf(val), sender, Range.All);
     }
 
     /**
@@ -390,7 +1431,7 @@ public class Manager {
      * @param sender Publishing object.
      */
     public static void publish(ArrayList<String> channelsList, int val, Object sender) {
-        Manager.publish(channelsList, new Data(val), sender, Range.All);
+        Manager.publish(channelsList, Data.valueOf(val), sender, Range.All);
     }
 
     /**
@@ -400,7 +1441,7 @@ public class Manager {
      * @param sender Publishing object.
      */
     public static void publish(ArrayList<String> channelsList, short val, Object sender) {
-        Manager.publish(channelsList, new Data(val), sender, Range.All);
+        Manager.publish(channelsList, Data.valueOf(val), sender, Range.All);
     }
 
     /**
@@ -410,7 +1451,7 @@ public class Manager {
      * @param sender Publishing object.
      */
     public static void publish(ArrayList<String> channelsList, byte val, Object sender) {
-        Manager.publish(channelsList, new Data(val), sender, Range.All);
+        Manager.publish(channelsList, Data.valueOf(val), sender, Range.All);
     }
 
     /**
@@ -423,6 +1464,16 @@ public class Manager {
         Manager.publish(channelsList, new Data(val), sender, Range.All);
     }
 
+    /**
+     * Publish data to channels.
+     * @param channelsList Channel names to publish at.
+     * @param val Raw bytes to publish to subscribers. (Base64 encoded for text clients)
+     * @param sender Publishing object.
+     */
+    public static void publish(ArrayList<String> channelsList, byte[] val, Object sender) {
+        Manager.publish(channelsList, new Data(val), sender, Range.All);
+    }
+
     /**
      * Publish data to channels.
      * @param channelsList Channel names to publish at.
@@ -460,7 +1511,7 @@ public class Manager {
      * @param range How far to publish the data.
      */
     public static void publish(String channel, long val, Range range) {
-        Manager.publish(channel, new Data(val), null, range);
+        Manager.publish(channel, val, null, range);
     }
 
     /**
@@ -470,7 +1521,7 @@ public class Manager {
      * @param range How far to publish the data.
      */
     public static void publish(String channel, int val, Range range) {
-        Manager.publish(channel, new Data(val), null, range);
+        Manager.publish(channel, val, null, range);
     }
 
     /**
@@ -480,7 +1531,7 @@ public class Manager {
      * @param range How far to publish the data.
      */
     public static void publish(String channel, short val, Range range) {
-        Manager.publish(channel, new Data(val), null, range);
+        Manager.publish(channel, val, null, range);
     }
 
     /**
@@ -490,7 +1541,7 @@ public class Manager {
      * @param range How far to publish the data.
      */
     public static void publish(String channel, byte val, Range range) {
-        Manager.publish(channel, new Data(val), null, range);
+        Manager.publish(channel, val, null, range);
     }
 
     /**
@@ -503,6 +1554,16 @@ public class Manager {
         Manager.publish(channel, new Data(val), null, range);
     }
 
+    /**
+     * Publish data to a channel.
+     * @param channel Channel name to publish at.
+     * @param val Raw bytes to publish to subscribers. (Base64 encoded for text clients)
+     * @param range How far to publish the data.
+     */
+    public static void publish(String channel, byte[] val, Range range) {
+        Manager.publish(channel, new Data(val), null, range);
+    }
+
     /**
      * Publish data to a channel.
      * @param channel Channel name to publish at.
@@ -520,7 +1581,7 @@ public class Manager {
      * @param range How far to publish the data.
      */
     public static void publish(String channel, float val, Range range) {
-        Manager.publish(channel, new Data(val), null, range);
+        Manager.publish(channel, val, null, range);
     }
 
     /**
@@ -530,7 +1591,7 @@ public class Manager {
      * @param range How far to publish the data.
      */
     public static void publish(String channel, double val, Range range) {
-        Manager.publish(channel, new Data(val), null, range);
+        Manager.publish(channel, val, null, range);
     }
 
     /**
@@ -540,7 +1601,7 @@ public class Manager {
      * @param range How far to publish the data.
      */
     public static void publish(ArrayList<String> channelsList, long val, Range range) {
-        Manager.publish(channelsList, new Data(val), null, range);
+        Manager.publish(channelsList, Data.valueOf(val), null, range);
     }
 
     /**
@@ -550,7 +1611,7 @@ public class Manager {
      * @param range How far to publish the data.
      */
     public static void publish(ArrayList<String> channelsList, int val, Range range) {
-        Manager.publish(channelsList, new Data(val), null, range);
+        Manager.publish(channelsList, Data.valueOf(val), null, range);
     }
 
     /**
@@ -560,7 +1621,7 @@ public class Manager {
      * @param range How far to publish the data.
      */
     public static void publish(ArrayList<String> channelsList, short val, Range range) {
-        Manager.publish(channelsList, new Data(val), null, range);
+        Manager.publish(channelsList, Data.valueOf(val), null, range);
     }
 
     /**
@@ -570,7 +1631,7 @@ public class Manager {
      * @param range How far to publish the data.
      */
     public static void publish(ArrayList<String> channelsList, byte val, Range range) {
-        Manager.publish(channelsList, new Data(val), null, range);
+        Manager.publish(channelsList, Data.valueOf(val), null, range);
     }
 
     /**
@@ -583,6 +1644,16 @@ public class Manager {
         Manager.publish(channelsList, new Data(val), null, range);
     }
 
+    /**
+     * Publish data to channels.
+     * @param channelsList Channel names to publish at.
+     * @param val Raw bytes to publish to subscribers. (Base64 encoded for text clients)
+     * @param range How far to publish the data.
+     */
+    public static void publish(ArrayList<String> channelsList, byte[] val, Range range) {
+        Manager.publish(channelsList, new Data(val), null, range);
+    }
+
     /**
      * Publish data to channels.
      * @param channelsList Channel names to publish at.
@@ -619,7 +1690,7 @@ public class Manager {
      * @param val Data to publish to subscribers.
      */
     public static void publish(String channel, long val) {
-        Manager.publish(channel, new Data(val), null, Range.All);
+        Manager.publish(channel, val, null, Range.All);
     }
 
     /**
@@ -628,7 +1699,7 @@ public class Manager {
      * @param val Data to publish to subscribers.
      */
     public static void publish(String channel, int val) {
-        Manager.publish(channel, new Data(val), null, Range.All);
+        Manager.publish(channel, val, null, Range.All);
     }
 
     /**
@@ -637,7 +1708,7 @@ public class Manager {
      * @param val Data to publish to subscribers.
      */
     public static void publish(String channel, short val) {
-        Manager.publish(channel, new Data(val), null, Range.All);
+        Manager.publish(channel, val, null, Range.All);
     }
 
     /**
@@ -646,7 +1717,7 @@ public class Manager {
      * @param val Data to publish to subscribers.
      */
     public static void publish(String channel, byte val) {
-        Manager.publish(channel, new Data(val), null, Range.All);
+        Manager.publish(channel, val, null, Range.All);
     }
 
     /**
@@ -658,6 +1729,15 @@ public class Manager {
         Manager.publish(channel, new Data(val), null, Range.All);
     }
 
+    /**
+     * Publish data to a channel.
+     * @param channel Channel name to publish at.
+     * @param val Raw bytes to publish to subscribers. (Base64 encoded for text clients)
+     */
+    public static void publish(String channel, byte[] val) {
+        Manager.publish(channel, new Data(val), null, Range.All);
+    }
+
     /**
      * Publish data to a channel.
      * @param channel Channel name to publish at.
@@ -673,7 +1753,7 @@ public class Manager {
      * @param val Data to publish to subscribers.
      */
     public static void publish(String channel, float val) {
-        Manager.publish(channel, new Data(val), null);
+        Manager.publish(channel, (double)val, (Object)null, Range.ServerOnly);
     }
 
     /**
@@ -682,7 +1762,7 @@ public class Manager {
      * @param val Data to publish to subscribers.
      */
     public static void publish(String channel, double val) {
-        Manager.publish(channel, new Data(val), null, Range.All);
+        Manager.publish(channel, val, null, Range.All);
     }
 
     /**
@@ -691,7 +1771,7 @@ public class Manager {
      * @param val Data to publish to subscribers.
      */
     public static void publish(ArrayList<String> channelsList, long val) {
-        Manager.publish(channelsList, new Data(val), null, Range.All);
+        Manager.publish(channelsList, Data.valueOf(val), null, Range.All);
     }
 
     /**
@@ -700,7 +1780,7 @@ public class Manager {
      * @param val Data to publish to subscribers.
      */
     public static void publish(ArrayList<String> channelsList, int val) {
-        Manager.publish(channelsList, new Data(val), null, Range.All);
+        Manager.publish(channelsList, Data.valueOf(val), null, Range.All);
     }
 
     /**
@@ -709,7 +1789,7 @@ public class Manager {
      * @param val Data to publish to subscribers.
      */
     public static void publish(ArrayList<String> channelsList, short val) {
-        Manager.publish(channelsList, new Data(val), null, Range.All);
+        Manager.publish(channelsList, Data.valueOf(val), null, Range.All);
     }
 
     /**
@@ -718,7 +1798,7 @@ public class Manager {
      * @param val Data to publish to subscribers.
      */
     public static void publish(ArrayList<String> channelsList, byte val) {
-        Manager.publish(channelsList, new Data(val), null, Range.All);
+        Manager.publish(channelsList, Data.valueOf(val), null, Range.All);
     }
 
     /**
@@ -730,6 +1810,15 @@ public class Manager {
         Manager.publish(channelsList, new Data(val), null, Range.All);
     }
 
+    /**
+     * Publish data to channels.
+     * @param channelsList Channel names to publish at.
+     * @param val Raw bytes to publish to subscribers. (Base64 encoded for text clients)
+     */
+    public static void publish(ArrayList<String> channelsList, byte[] val) {
+        Manager.publish(channelsList, new Data(val), null, Range.All);
+    }
+
     /**
      * Publish data to channels.
      * @param channelsList Channel names to publish at.
@@ -764,9 +1853,7 @@ public class Manager {
      * @param sender Publishing object.
      */
     public static void publish(String channel, Data eventData, Object sender) {
-        if(channels.containsKey(channel) && channels.get(channel).getSubscribers().size() > 0) {
-            channels.get(channel).notify(eventData, sender, Range.ServerOnly);
-        }
+        Manager.publish(channel, eventData, sender, Range.ServerOnly);
     }
 
     /**
@@ -775,9 +1862,7 @@ public class Manager {
      * @param eventData Data to publish to subscribers.
      */
     public static void publish(String channel, Data eventData) {
-        if(channels.containsKey(channel) && channels.get(channel).getSubscribers().size() > 0) {
-            channels.get(channel).notify(eventData, null, Range.ServerOnly);
-        }
+        Manager.publish(channel, eventData, null, Range.ServerOnly);
     }
 
     /**
@@ -788,11 +1873,26 @@ public class Manager {
      * @param range How far to publish the data.
      */
     public static void publish(ArrayList<String> channelsList, Data eventData, Object sender, Range range) {
+        if(shards == null) {
+            for(String channel : channelsList) {
+                Manager.publish(channel, eventData, sender, range);
+            }
+            return;
+        }
+
+        ArrayList<Channel> chs = new ArrayList<>(channelsList.size());
         for(String channel : channelsList) {
-            if (channels.containsKey(channel) && channels.get(channel).getSubscribers().size() > 0) {
-                channels.get(channel).notify(eventData, sender, range);
+            Channel ch = publishChannel(channel);
+            if(ch != null) {
+                chs.add(ch);
             }
         }
+
+        dispatch(chs, part -> {
+            for(Channel ch : part) {
+                ch.notify(eventData, sender, range);
+            }
+        });
     }
 
     /**
@@ -802,11 +1902,7 @@ public class Manager {
      * @param sender Publishing object.
      */
     public static void publish(ArrayList<String> channelsList, Data eventData, Object sender) {
-        for(String channel : channelsList) {
-            if (channels.containsKey(channel) && channels.get(channel).getSubscribers().size() > 0) {
-                channels.get(channel).notify(eventData, sender, Range.ServerOnly);
-            }
-        }
+        Manager.publish(channelsList, eventData, sender, Range.ServerOnly);
     }
 
     /**
@@ -815,11 +1911,7 @@ public class Manager {
      * @param eventData Data to publish to subscribers.
      */
     public static void publish(ArrayList<String> channelsList, Data eventData) {
-        for(String channel : channelsList) {
-            if (channels.containsKey(channel) && channels.get(channel).getSubscribers().size() > 0) {
-                channels.get(channel).notify(eventData, null, Range.ServerOnly);
-            }
-        }
+        Manager.publish(channelsList, eventData, null, Range.ServerOnly);
     }
 
 
@@ -829,8 +1921,16 @@ public class Manager {
      * @param client Client object to add to clients list.
      */
     public static void onNewClient(Client client) {
-        clients.add(client);
-        client.subscribe(channelList);
+        startWriteWatchdog();
+        synchronized (interestLock) {
+            clients.add(client);
+            for(Frame frame : channelList.getFrames()) {
+                client.send(frame);
+            }
+            if(patternList.size() > 0) {
+                client.send(Frame.subscribePatterns(new ArrayList<>(patternList)));
+            }
+        }
     }
 
     /**
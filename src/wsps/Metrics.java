@@ -0,0 +1,307 @@
+package wsps;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Counters of the publish and subscribe paths. Recorded on striped counters, so the hot paths don't contend.
+ * Read them by the getters (pull API) or register the MBean to read them by JMX.
+ * Counters only grow, rates are their change between two reads.
+ */
+public class Metrics implements MetricsMBean {
+    public static final String OBJECT_NAME = "wsps:type=Metrics";
+
+    protected final LongAdder publishes = new LongAdder();
+    protected final LongAdder subscribeBroadcasts = new LongAdder();
+    protected final LongAdder unsubscribeBroadcasts = new LongAdder();
+    protected final LongAdder parseFailures = new LongAdder();
+    protected final LongAdder messagesSent = new LongAdder();
+    protected final LongAdder bytesSent = new LongAdder();
+    protected final LongAdder messagesReceived = new LongAdder();
+    protected final LongAdder bytesReceived = new LongAdder();
+    protected final LongAdder droppedFrames = new LongAdder();
+    protected final LongAdder writeTimeouts = new LongAdder();
+    protected final Histogram fanOut = new Histogram();
+    protected final Histogram notifyNanos = new Histogram();
+
+    private final HashMap<Channel, Long> lastPublishCounts = new HashMap<>();
+    private long lastRateRead = System.nanoTime();
+
+    /**
+     * Counts a publish at a channel and its fan-out.
+     * @param ch Channel published at.
+     * @param subscribers Amount of notified subscribers.
+     * @param nanos Time notifying took.
+     */
+    void onPublish(Channel ch, int subscribers, long nanos) {
+        this.publishes.increment();
+        ch.publishCount.increment();
+        this.fanOut.record(subscribers);
+        this.notifyNanos.record(nanos);
+    }
+
+    /**
+     * Counts a subscribe or unsubscribe frame sent to all clients.
+     * @param subscribe TRUE if subscribe, FALSE if unsubscribe.
+     */
+    void onInterestBroadcast(boolean subscribe) {
+        (subscribe ? this.subscribeBroadcasts : this.unsubscribeBroadcasts).increment();
+    }
+
+    /**
+     * Counts a malformed message received from a client.
+     */
+    void onParseFailure() {
+        this.parseFailures.increment();
+    }
+
+    /**
+     * Counts a message sent to a client.
+     * @param bytes Size of the message.
+     */
+    void onSent(long bytes) {
+        this.messagesSent.increment();
+        this.bytesSent.add(bytes);
+    }
+
+    /**
+     * Counts a message received from a client.
+     * @param bytes Size of the message.
+     */
+    void onReceived(long bytes) {
+        this.messagesReceived.increment();
+        this.bytesReceived.add(bytes);
+    }
+
+    /**
+     * Counts a frame that did not fit the outbound queue of a client. (See OutboundQueue.OverflowPolicy)
+     */
+    void onDropped() {
+        this.droppedFrames.increment();
+    }
+
+    /**
+     * Counts a client disconnected because a write to it blocked longer than the write timeout.
+     */
+    void onWriteTimeout() {
+        this.writeTimeouts.increment();
+    }
+
+    @Override
+    public long getPublishCount() {
+        return this.publishes.sum();
+    }
+
+    @Override
+    public long getSubscribeBroadcastCount() {
+        return this.subscribeBroadcasts.sum();
+    }
+
+    @Override
+    public long getUnsubscribeBroadcastCount() {
+        return this.unsubscribeBroadcasts.sum();
+    }
+
+    @Override
+    public long getParseFailureCount() {
+        return this.parseFailures.sum();
+    }
+
+    @Override
+    public long getRejectedPublishCount() {
+        return Manager.getRejectedPublishCount();
+    }
+
+    @Override
+    public long getMessagesSent() {
+        return this.messagesSent.sum();
+    }
+
+    @Override
+    public long getBytesSent() {
+        return this.bytesSent.sum();
+    }
+
+    @Override
+    public long getMessagesReceived() {
+        return this.messagesReceived.sum();
+    }
+
+    @Override
+    public long getBytesReceived() {
+        return this.bytesReceived.sum();
+    }
+
+    @Override
+    public long getDroppedFrameCount() {
+        return this.droppedFrames.sum();
+    }
+
+    @Override
+    public long getWriteTimeoutCount() {
+        return this.writeTimeouts.sum();
+    }
+
+    @Override
+    public int getClientCount() {
+        return Manager.clients.size();
+    }
+
+    /**
+     * Returns the amount of registered channels.
+     * @return Channels in the channel table.
+     */
+    @Override
+    public int getChannelCount() {
+        return Manager.channels.size();
+    }
+
+    /**
+     * Returns the amount of channels having subscribers.
+     * @return Active channels.
+     */
+    @Override
+    public int getActiveChannelCount() {
+        return Manager.channelList.size();
+    }
+
+    /**
+     * Returns the distribution of notified subscribers per publish.
+     * @return Fan-out histogram.
+     */
+    public Histogram getFanOut() {
+        return this.fanOut;
+    }
+
+    /**
+     * Returns the distribution of the nanoseconds Channel.notify took.
+     * @return Notify duration histogram.
+     */
+    public Histogram getNotifyNanos() {
+        return this.notifyNanos;
+    }
+
+    @Override
+    public double getFanOutMean() {
+        return this.fanOut.getMean();
+    }
+
+    @Override
+    public long getFanOutP99() {
+        return this.fanOut.getQuantile(0.99);
+    }
+
+    @Override
+    public double getNotifyMeanNanos() {
+        return this.notifyNanos.getMean();
+    }
+
+    @Override
+    public long getNotifyP99Nanos() {
+        return this.notifyNanos.getQuantile(0.99);
+    }
+
+    /**
+     * Returns the publishes per second of each channel published at since the previous call.
+     * (The first call measures since the metrics were created)
+     * @return Rates by channel name, channels without publishes are left out.
+     */
+    public synchronized Map<String, Double> getChannelPublishRates() {
+        long now = System.nanoTime();
+        double seconds = Math.max(1, now - this.lastRateRead) / 1e9;
+        this.lastRateRead = now;
+
+        LinkedHashMap<String, Double> rates = new LinkedHashMap<>();
+        for(int id = 0; id < Manager.channels.size(); id++) {
+            Channel ch = Manager.channels.get(id);
+            if(ch == null) {
+                continue;
+            }
+
+            long count = ch.publishCount.sum();
+            Long last = this.lastPublishCounts.put(ch, count);
+            long delta = count - (last != null ? last : 0);
+            if(delta > 0) {
+                rates.put(ch.getName(), delta / seconds);
+            }
+        }
+
+        return rates;
+    }
+
+    /**
+     * Returns the channels with the highest publish rates since the previous rate read. (See getChannelPublishRates)
+     * @param n Maximum amount of channels.
+     * @return "name rate" per channel, highest rate first.
+     */
+    @Override
+    public String[] topChannelPublishRates(int n) {
+        ArrayList<Map.Entry<String, Double>> rates = new ArrayList<>(this.getChannelPublishRates().entrySet());
+        rates.sort(Map.Entry.<String, Double>comparingByValue().reversed());
+
+        String[] top = new String[Math.max(0, Math.min(n, rates.size()))];
+        for(int i = 0; i < top.length; i++) {
+            Map.Entry<String, Double> e = rates.get(i);
+            top[i] = e.getKey() + " " + String.format(Locale.ROOT, "%.2f/s", e.getValue());
+        }
+        return top;
+    }
+
+    /**
+     * Returns the traffic of the clients with the most sent and received bytes.
+     * @param n Maximum amount of clients.
+     * @return "handle sent=messages/bytes received=messages/bytes" per client, most bytes first.
+     */
+    @Override
+    public String[] topClientTraffic(int n) {
+        ArrayList<Client> clients = new ArrayList<>(Manager.clients);
+        //Read once, the counters keep growing while sorting.
+        HashMap<Client, Long> bytes = new HashMap<>();
+        for(Client c : clients) {
+            bytes.put(c, c.getSentBytes() + c.getReceivedBytes());
+        }
+        clients.sort((a, b) -> Long.compare(bytes.get(b), bytes.get(a)));
+
+        String[] top = new String[Math.max(0, Math.min(n, clients.size()))];
+        for(int i = 0; i < top.length; i++) {
+            Client c = clients.get(i);
+            top[i] = c.wscw.getHandle() + " sent=" + c.getSentMessages() + "/" + c.getSentBytes()
+                    + " received=" + c.getReceivedMessages() + "/" + c.getReceivedBytes();
+        }
+        return top;
+    }
+
+    /**
+     * Resets the histograms. (Counters keep growing)
+     */
+    @Override
+    public void reset() {
+        this.fanOut.reset();
+        this.notifyNanos.reset();
+    }
+
+    /**
+     * Registers the metrics at the platform MBean server. (Name see OBJECT_NAME)
+     * @throws JMException If registering failed, e.g. if already registered.
+     */
+    public void registerMBean() throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        server.registerMBean(this, new ObjectName(OBJECT_NAME));
+    }
+
+    /**
+     * Unregisters the metrics from the platform MBean server.
+     * @throws JMException If unregistering failed, e.g. if not registered.
+     */
+    public void unregisterMBean() throws JMException {
+        ManagementFactory.getPlatformMBeanServer().unregisterMBean(new ObjectName(OBJECT_NAME));
+    }
+}
@@ -0,0 +1,28 @@
+package wsps;
+
+/**
+ * JMX view of the server metrics. (See Metrics)
+ */
+public interface MetricsMBean {
+    long getPublishCount();
+    long getSubscribeBroadcastCount();
+    long getUnsubscribeBroadcastCount();
+    long getParseFailureCount();
+    long getRejectedPublishCount();
+    long getMessagesSent();
+    long getBytesSent();
+    long getMessagesReceived();
+    long getBytesReceived();
+    long getDroppedFrameCount();
+    long getWriteTimeoutCount();
+    int getClientCount();
+    int getChannelCount();
+    int getActiveChannelCount();
+    double getFanOutMean();
+    long getFanOutP99();
+    double getNotifyMeanNanos();
+    long getNotifyP99Nanos();
+    String[] topChannelPublishRates(int n);
+    String[] topClientTraffic(int n);
+    void reset();
+}
@@ -0,0 +1,587 @@
+package wsps;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounded queue of frames waiting to be sent to one client.
+ * Publishing threads only enqueue, the frames are sent by a writer of Manager.getWriterExecutor(),
+ * so a slow or stalled socket does not block the publisher and the other subscribers.
+ *
+ * With coalescing enabled the writer waits up to the flush delay, then sends all pending frames as one batch frame:
+ * "b" followed by the length and the frame itself for each frame, e.g. "b9:p21:xi4210:p21:ys,abc".
+ *
+ * After the binary protocol was negotiated (Frame.BINARY was sent), the frames are sent binary encoded.
+ *
+ * Publish frames of conflating channels (see Channel.setConflating) keep their place in the queue,
+ * but a newer frame of the same channel replaces the pending one instead of being appended.
+ */
+public class OutboundQueue {
+    /**
+     * What happens if a frame is added to the full queue. Only publish frames are ever dropped,
+     * subscribe, unsubscribe and handshake frames keep the client in sync. If no publish frame can
+     * make room for such a frame, the client is disconnected.
+     */
+    public enum OverflowPolicy {
+        /** Removes the oldest queued publish frame to make room for the new one. */
+        DropOldest,
+        /** Discards the new publish frame. (A new control frame replaces the newest queued publish frame) */
+        DropNewest,
+        /** Closes the connection of the client. */
+        Disconnect
+    }
+
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    protected final Client client;
+    protected final ArrayDeque<Frame> frames = new ArrayDeque<>();
+    protected int capacity = DEFAULT_CAPACITY;
+    protected OverflowPolicy policy = OverflowPolicy.DropOldest;
+
+    protected long flushDelay = 0;
+    protected int maxBatchSize = 0;
+
+    private long dropped = 0;
+    private long replaced = 0;
+
+    // Written by the running writer only.
+    private volatile long sentMessages = 0;
+    private volatile long sentBytes = 0;
+    private volatile long writeStartedAt = 0;
+    private int pendingSize = 0;
+    private boolean binarySizes = false;
+    private boolean scheduled = false;
+    private boolean running = false;
+    private boolean closed = false;
+
+    /**
+     * Incremented by every drain, so a delayed drain scheduled before knows it is stale.
+     */
+    private long flushGeneration = 0;
+    private ScheduledFuture<?> delayedDrain = null;
+
+    /**
+     * Pending frames of conflating channels by channel name: the frame holding the place in the queue
+     * and the newest frame to send instead.
+     */
+    private final HashMap<String, Frame[]> conflated = new HashMap<>();
+
+    // Only used by the running writer.
+    private final ArrayList<Frame> batch = new ArrayList<>();
+    private final HashMap<String, Integer> channelIds = new HashMap<>();
+    private BinaryWriter writer = null;
+    private BinaryWriter frameWriter = null;
+    private boolean binary = false;
+
+    /**
+     * Initializes a new outbound queue.
+     * @param client Client to send the frames to.
+     */
+    public OutboundQueue(Client client) {
+        this.client = client;
+    }
+
+    /**
+     * Returns the maximum amount of queued frames.
+     * @return Capacity.
+     */
+    public synchronized int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Sets the maximum amount of queued frames.
+     * @param capacity Capacity. (At least 1)
+     */
+    public synchronized void setCapacity(int capacity) {
+        if(capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be at least 1.");
+        }
+
+        this.capacity = capacity;
+    }
+
+    /**
+     * Returns what happens if a frame is added to the full queue.
+     * @return Overflow policy.
+     */
+    public synchronized OverflowPolicy getOverflowPolicy() {
+        return policy;
+    }
+
+    /**
+     * Sets what happens if a frame is added to the full queue.
+     * @param policy Overflow policy.
+     */
+    public synchronized void setOverflowPolicy(OverflowPolicy policy) {
+        this.policy = policy;
+    }
+
+    /**
+     * Enables sending the pending frames batched into one frame. (The WebSocket client must support batch frames)
+     * @param flushDelay Milliseconds to wait for more frames after the first pending frame.
+     * @param maxBatchSize Maximum size of a batch frame including the length prefixes, in characters
+     * (bytes after the binary protocol was negotiated). A full batch is sent without waiting.
+     */
+    public synchronized void setCoalescing(long flushDelay, int maxBatchSize) {
+        if(flushDelay < 0 || maxBatchSize < 1) {
+            throw new IllegalArgumentException("Flush delay must not be negative and batch size must be at least 1.");
+        }
+
+        this.flushDelay = flushDelay;
+        this.maxBatchSize = maxBatchSize;
+        this.recountPendingSize();
+    }
+
+    /**
+     * Disables batching, every frame is sent on its own.
+     */
+    public synchronized void disableCoalescing() {
+        this.flushDelay = 0;
+        this.maxBatchSize = 0;
+        this.recountPendingSize();
+    }
+
+    /**
+     * Returns whether pending frames are sent batched.
+     * @return TRUE if coalescing is enabled.
+     */
+    public synchronized boolean isCoalescing() {
+        return maxBatchSize > 0;
+    }
+
+    /**
+     * Returns the milliseconds the writer waits for more frames before sending a batch.
+     * @return Flush delay.
+     */
+    public synchronized long getFlushDelay() {
+        return flushDelay;
+    }
+
+    /**
+     * Returns the maximum size of a batch frame. (Characters, bytes in the binary protocol)
+     * @return Batch size or 0 if coalescing is disabled.
+     */
+    public synchronized int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    /**
+     * Returns the amount of frames waiting to be sent.
+     * @return Queue depth.
+     */
+    public synchronized int size() {
+        return frames.size();
+    }
+
+    /**
+     * Returns the amount of frames dropped because the queue was full.
+     * @return Dropped frames.
+     */
+    public synchronized long getDroppedCount() {
+        return dropped;
+    }
+
+    /**
+     * Returns the amount of pending frames replaced by newer frames of conflating channels.
+     * @return Replaced frames.
+     */
+    public synchronized long getReplacedCount() {
+        return replaced;
+    }
+
+    /**
+     * Returns the amount of WebSocket messages sent. (A batch counts once)
+     * @return Sent messages.
+     */
+    public long getSentMessages() {
+        return sentMessages;
+    }
+
+    /**
+     * Returns the bytes of all WebSocket messages sent. (UTF-8 length of text messages)
+     * @return Sent bytes.
+     */
+    public long getSentBytes() {
+        return sentBytes;
+    }
+
+    /**
+     * Returns whether the writer is blocked in a write for longer than a timeout.
+     * @param now Current System.nanoTime().
+     * @param timeoutNanos Write timeout.
+     * @return TRUE if stalled.
+     */
+    public boolean isStalled(long now, long timeoutNanos) {
+        long started = writeStartedAt;
+        return started != 0 && now - started > timeoutNanos;
+    }
+
+    /**
+     * Adds a frame to the queue and schedules the writer if necessary.
+     * @param frame Frame to send.
+     * @return FALSE if the frame was not queued.
+     */
+    public boolean offer(Frame frame) {
+        boolean execute = false;
+        boolean delay = false;
+        long generation;
+        synchronized (this) {
+            if(closed) {
+                return false;
+            }
+
+            if(frame.conflate) {
+                Frame[] slot = conflated.get(frame.getChannel());
+                if(slot != null) {
+                    //The queued frame is still pending, so the writer is already on its way.
+                    pendingSize += sizeOf(frame) - sizeOf(slot[1]);
+                    slot[1] = frame;
+                    replaced++;
+                    return true;
+                }
+            }
+
+            if(frames.size() >= capacity) {
+                dropped++;
+                Manager.getMetrics().onDropped();
+                //Publish frames make room, control frames are never dropped.
+                boolean droppable = isDroppable(frame);
+                boolean dropNew = policy == OverflowPolicy.DropNewest && droppable;
+                if(policy == OverflowPolicy.Disconnect || dropNew || !removeDroppable(policy == OverflowPolicy.DropOldest)) {
+                    if(policy != OverflowPolicy.Disconnect && droppable) {
+                        return false;
+                    }
+
+                    closed = true;
+                    frames.clear();
+                    conflated.clear();
+                    pendingSize = 0;
+                    Manager.getWriterExecutor().execute(client::disconnect);
+                    return false;
+                }
+            }
+
+            int size = sizeOf(frame);
+            frames.add(frame);
+            pendingSize += size;
+            if(frame.conflate) {
+                conflated.put(frame.getChannel(), new Frame[] {frame, frame});
+            }
+            if(!scheduled && !running) {
+                scheduled = true;
+                if(maxBatchSize > 0 && flushDelay > 0 && pendingSize < maxBatchSize) {
+                    delay = true;
+                } else {
+                    execute = true;
+                }
+            } else if(maxBatchSize > 0 && !running && pendingSize >= maxBatchSize && pendingSize - size < maxBatchSize) {
+                //The drain cancels the delayed one.
+                execute = true;
+            }
+            generation = flushGeneration;
+        }
+
+        if(execute) {
+            Manager.getWriterExecutor().execute(this::drain);
+        } else if(delay) {
+            ScheduledFuture<?> future = Manager.getScheduler().schedule(() -> this.drainDelayed(generation), flushDelay, TimeUnit.MILLISECONDS);
+            synchronized (this) {
+                if(generation == flushGeneration) {
+                    delayedDrain = future;
+                    future = null;
+                }
+            }
+            if(future != null) {
+                future.cancel(false);
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Discards all queued frames and rejects further ones.
+     */
+    public synchronized void close() {
+        closed = true;
+        frames.clear();
+        conflated.clear();
+        pendingSize = 0;
+    }
+
+    /**
+     * Runs the delayed drain unless a drain ran since it was scheduled.
+     * @param generation Flush generation when scheduled.
+     */
+    private void drainDelayed(long generation) {
+        synchronized (this) {
+            if(generation != flushGeneration) {
+                return;
+            }
+        }
+
+        Manager.getWriterExecutor().execute(this::drain);
+    }
+
+    /**
+     * Sends queued frames until the queue is empty. (Runs at most once at a time per queue)
+     */
+    protected void drain() {
+        ScheduledFuture<?> stale;
+        synchronized (this) {
+            if(running) {
+                return;
+            }
+
+            running = true;
+            scheduled = false;
+            flushGeneration++;
+            stale = delayedDrain;
+            delayedDrain = null;
+        }
+
+        if(stale != null) {
+            stale.cancel(false);
+        }
+
+        WebSocketClientWrapper wscw = client.getWebSocketClientWrapper();
+        boolean failed = true;
+        try {
+            for(;;) {
+                synchronized (this) {
+                    pollBatch();
+                    if(batch.isEmpty()) {
+                        running = false;
+                        failed = false;
+                        return;
+                    }
+                }
+
+                //Never 0 while writing. (See isStalled)
+                writeStartedAt = System.nanoTime() | 1;
+                try {
+                    if(binary) {
+                        sendBinary(wscw);
+                    } else {
+                        sendText(wscw);
+                    }
+                } finally {
+                    writeStartedAt = 0;
+                }
+                batch.clear();
+            }
+        } finally {
+            if(failed) {
+                batch.clear();
+                synchronized (this) {
+                    running = false;
+                    closed = true;
+                    frames.clear();
+                    conflated.clear();
+                    pendingSize = 0;
+                }
+
+                client.disconnect();
+            }
+        }
+    }
+
+    /**
+     * Moves the next frames to send into the batch. (More than one only if coalescing is enabled)
+     */
+    private void pollBatch() {
+        Frame frame = poll();
+        if(frame == null) {
+            return;
+        }
+
+        int size = sizeOf(frame);
+        pendingSize -= size;
+        batch.add(frame);
+        if(frame.getOp() == Frame.BINARY) {
+            //All frames queued behind it are sent binary encoded.
+            binarySizes = true;
+            recountPendingSize();
+            return;
+        }
+
+        if(maxBatchSize <= 0) {
+            return;
+        }
+
+        //The batch op character or byte comes first. (The binary frame count is at most a few bytes more)
+        size += binarySizes ? 1 + BinaryWriter.varintSize(frames.size() + 1) : 1;
+        while(!frames.isEmpty() && frames.peek().getOp() != Frame.BINARY) {
+            int next = sizeOf(latest(frames.peek()));
+            if(size + next > maxBatchSize) {
+                break;
+            }
+
+            frame = poll();
+            size += next;
+            pendingSize -= next;
+            batch.add(frame);
+        }
+    }
+
+    /**
+     * Returns whether a frame may be dropped if the queue is full. (Publish frames only)
+     * @param frame Frame.
+     * @return TRUE if the frame is a publish frame.
+     */
+    private static boolean isDroppable(Frame frame) {
+        return frame.getOp() == Frame.PUBLISH || frame.getOp() == Frame.SEQUENCED_PUBLISH;
+    }
+
+    /**
+     * Removes a queued publish frame to make room.
+     * @param oldest TRUE to remove the oldest, FALSE to remove the newest one.
+     * @return FALSE if no publish frame is queued.
+     */
+    private boolean removeDroppable(boolean oldest) {
+        Iterator<Frame> it = oldest ? frames.iterator() : frames.descendingIterator();
+        while(it.hasNext()) {
+            Frame frame = it.next();
+            if(isDroppable(frame)) {
+                pendingSize -= sizeOf(latest(frame));
+                if(frame.conflate) {
+                    Frame[] slot = conflated.get(frame.getChannel());
+                    if(slot != null && slot[0] == frame) {
+                        conflated.remove(frame.getChannel());
+                    }
+                }
+                it.remove();
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Removes the head of the queue.
+     * @return Frame to send in its place (the newest one of its channel if conflated) or null if empty.
+     */
+    private Frame poll() {
+        Frame frame = frames.poll();
+        if(frame != null && frame.conflate) {
+            Frame[] slot = conflated.get(frame.getChannel());
+            if(slot != null && slot[0] == frame) {
+                conflated.remove(frame.getChannel());
+                return slot[1];
+            }
+        }
+
+        return frame;
+    }
+
+    /**
+     * Returns the frame sent in place of a queued frame.
+     * @param frame Queued frame.
+     * @return Newest frame of its channel if conflated, otherwise the frame itself.
+     */
+    private Frame latest(Frame frame) {
+        if(frame.conflate) {
+            Frame[] slot = conflated.get(frame.getChannel());
+            if(slot != null && slot[0] == frame) {
+                return slot[1];
+            }
+        }
+
+        return frame;
+    }
+
+    private void sendText(WebSocketClientWrapper wscw) {
+        if(batch.size() == 1) {
+            Frame frame = batch.get(0);
+            wscw.send(frame);
+            onSent(frame.getByteLength());
+            if(frame.getOp() == Frame.BINARY) {
+                binary = true;
+            }
+            return;
+        }
+
+        StringBuilder sb = new StringBuilder(maxBatchSize + 64);
+        sb.append(Frame.BATCH);
+        for(Frame frame : batch) {
+            String text = frame.getText();
+            sb.append(text.length()).append(':').append(text);
+        }
+
+        Frame frame = new Frame(sb.toString());
+        wscw.send(frame);
+        onSent(frame.getByteLength());
+    }
+
+    private void sendBinary(WebSocketClientWrapper wscw) {
+        if(writer == null) {
+            writer = new BinaryWriter(1024);
+            frameWriter = new BinaryWriter(256);
+        }
+
+        writer.reset();
+        if(batch.size() == 1) {
+            batch.get(0).writeBinary(writer, channelIds);
+        } else {
+            writer.writeByte(Frame.BATCH);
+            writer.writeVarint(batch.size());
+            for(Frame frame : batch) {
+                frameWriter.reset();
+                frame.writeBinary(frameWriter, channelIds);
+                writer.writeVarint(frameWriter.size());
+                writer.write(frameWriter.buf, 0, frameWriter.size());
+            }
+        }
+
+        wscw.send(writer.toByteBuffer());
+        onSent(writer.size());
+    }
+
+    private void onSent(long bytes) {
+        sentMessages++;
+        sentBytes += bytes;
+        Manager.getMetrics().onSent(bytes);
+    }
+
+    /**
+     * Returns the size a frame counts for the batch size, including its length prefix in a batch.
+     * (Binary clients never build the network string)
+     * @param frame Queued frame.
+     * @return Characters or bytes of the frame or 0 if coalescing is disabled.
+     */
+    private int sizeOf(Frame frame) {
+        if(maxBatchSize <= 0) {
+            return 0;
+        }
+
+        if(binarySizes) {
+            int n = frame.getBinaryLength();
+            return BinaryWriter.varintSize(n) + n;
+        }
+
+        int n = frame.getText().length();
+        return stringSize(n) + 1 + n;
+    }
+
+    private static int stringSize(int n) {
+        int digits = 1;
+        while(n >= 10) {
+            n /= 10;
+            digits++;
+        }
+        return digits;
+    }
+
+    private void recountPendingSize() {
+        pendingSize = 0;
+        for(Frame frame : frames) {
+            pendingSize += sizeOf(latest(frame));
+        }
+    }
+}
@@ -0,0 +1,305 @@
+package wsps;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Trie of wildcard subscriptions. Channel names are split into segments at dots.
+ * In a pattern "*" matches exactly one segment and a trailing "#" matches all remaining segments (also none),
+ * e.g. "stocks.*" matches "stocks.aapl", "stocks.#" matches "stocks", "stocks.aapl" and "stocks.aapl.ask".
+ *
+ * Matching is lock-free, changes must be serialized by the caller. Every change increments the version,
+ * so the matched subscribers can be cached until the next change. (See matches for invalidating selectively)
+ */
+public class PatternTable {
+    public static final String ONE = "*";
+    public static final String REST = "#";
+
+    private static final Subscriber[] NO_SUBSCRIBERS = new Subscriber[0];
+
+    /**
+     * Collects the matches of one call without duplicates. Reused by every match of a thread.
+     */
+    private static class Matches {
+        final IdentityHashMap<Subscriber, Boolean> seen = new IdentityHashMap<>();
+        final ArrayList<Subscriber> found = new ArrayList<>();
+
+        void add(Subscriber[] subs) {
+            for(Subscriber sub : subs) {
+                if(this.seen.put(sub, Boolean.TRUE) == null) {
+                    this.found.add(sub);
+                }
+            }
+        }
+    }
+
+    private static final ThreadLocal<Matches> matches = ThreadLocal.withInitial(Matches::new);
+
+    private static class Node {
+        final ConcurrentHashMap<String, Node> children = new ConcurrentHashMap<>();
+        volatile Node one = null;
+        volatile Subscriber[] exact = NO_SUBSCRIBERS;
+        volatile Subscriber[] rest = NO_SUBSCRIBERS;
+
+        boolean isEmpty() {
+            return children.isEmpty() && one == null && exact.length == 0 && rest.length == 0;
+        }
+    }
+
+    private final Node root = new Node();
+    private volatile long version = 0;
+    private volatile int size = 0;
+
+    /**
+     * Returns whether a channel name is a pattern.
+     * @param name Channel name or pattern.
+     * @return TRUE if the name contains a wildcard segment.
+     */
+    public static boolean isPattern(String name) {
+        for(String seg : split(name)) {
+            if(seg.equals(ONE) || seg.equals(REST)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Returns the version, changed by every subscribe and unsubscribe.
+     * @return Version.
+     */
+    public long getVersion() {
+        return this.version;
+    }
+
+    /**
+     * Returns the amount of subscriptions. (Pattern and subscriber pairs)
+     * @return Amount of subscriptions.
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Adds a pattern subscription.
+     * @param pattern Pattern.
+     * @param subscriber Subscribing object.
+     * @return TRUE if the subscriber is the first one of this pattern.
+     * @throws IllegalArgumentException If "#" is not the last segment.
+     */
+    public boolean add(String pattern, Subscriber subscriber) {
+        String[] segs = split(pattern);
+        int last = segs.length - 1;
+        boolean rest = segs[last].equals(REST);
+        //Validated first, so an invalid pattern leaves no nodes behind.
+        for(int i = 0; i < last; i++) {
+            if(segs[i].equals(REST)) {
+                throw new IllegalArgumentException("\"#\" must be the last segment of a pattern.");
+            }
+        }
+
+        Node node = root;
+        for(int i = 0; i < (rest ? last : segs.length); i++) {
+            node = child(node, segs[i]);
+        }
+
+        Subscriber[] subs = rest ? node.rest : node.exact;
+        for(Subscriber sub : subs) {
+            if(subscriber.equals(sub)) {
+                return false;
+            }
+        }
+
+        Subscriber[] next = Arrays.copyOf(subs, subs.length + 1);
+        next[subs.length] = subscriber;
+        if(rest) {
+            node.rest = next;
+        } else {
+            node.exact = next;
+        }
+
+        this.size++;
+        this.version++;
+        return subs.length == 0;
+    }
+
+    /**
+     * Removes a pattern subscription.
+     * @param pattern Pattern.
+     * @param subscriber Subscribed object.
+     * @return TRUE if the subscriber was the last one of this pattern.
+     */
+    public boolean remove(String pattern, Subscriber subscriber) {
+        String[] segs = split(pattern);
+        int last = segs.length - 1;
+        boolean rest = segs[last].equals(REST);
+        int depth = rest ? last : segs.length;
+        Node[] path = new Node[depth + 1];
+        path[0] = root;
+        for(int i = 0; i < depth; i++) {
+            Node next = segs[i].equals(ONE) ? path[i].one : path[i].children.get(segs[i]);
+            if(next == null) {
+                return false;
+            }
+            path[i + 1] = next;
+        }
+
+        Node node = path[depth];
+        Subscriber[] subs = rest ? node.rest : node.exact;
+        int at = -1;
+        for(int i = 0; i < subs.length; i++) {
+            if(subscriber.equals(subs[i])) {
+                at = i;
+                break;
+            }
+        }
+
+        if(at < 0) {
+            return false;
+        }
+
+        Subscriber[] next = new Subscriber[subs.length - 1];
+        System.arraycopy(subs, 0, next, 0, at);
+        System.arraycopy(subs, at + 1, next, at, subs.length - at - 1);
+        if(rest) {
+            node.rest = next;
+        } else {
+            node.exact = next;
+        }
+
+        //Prune the nodes nobody needs anymore.
+        for(int i = depth; i > 0 && path[i].isEmpty(); i--) {
+            if(segs[i - 1].equals(ONE)) {
+                path[i - 1].one = null;
+            } else {
+                path[i - 1].children.remove(segs[i - 1]);
+            }
+        }
+
+        this.size--;
+        this.version++;
+        return next.length == 0;
+    }
+
+    /**
+     * Returns the subscribers of all patterns matching a channel name. (Each subscriber once)
+     * @param channel Channel name.
+     * @return Matching subscribers.
+     */
+    public Subscriber[] match(String channel) {
+        if(this.size == 0) {
+            return NO_SUBSCRIBERS;
+        }
+
+        Matches m = matches.get();
+        try {
+            match(root, channel, 0, m);
+            return m.found.isEmpty() ? NO_SUBSCRIBERS : m.found.toArray(NO_SUBSCRIBERS);
+        } finally {
+            m.seen.clear();
+            m.found.clear();
+        }
+    }
+
+    //from is the index of the next segment, past the end of the name if there is none left.
+    private static void match(Node node, String channel, int from, Matches m) {
+        m.add(node.rest);
+        if(from > channel.length()) {
+            m.add(node.exact);
+            return;
+        }
+
+        int end = channel.indexOf('.', from);
+        if(end < 0) {
+            end = channel.length();
+        }
+
+        if(!node.children.isEmpty()) {
+            Node next = node.children.get(channel.substring(from, end));
+            if(next != null) {
+                match(next, channel, end + 1, m);
+            }
+        }
+
+        Node next = node.one;
+        if(next != null) {
+            match(next, channel, end + 1, m);
+        }
+    }
+
+    /**
+     * Returns whether a pattern matches a channel name, without looking at the subscriptions.
+     * @param pattern Pattern.
+     * @param channel Channel name.
+     * @return TRUE if matching.
+     */
+    public static boolean matches(String pattern, String channel) {
+        int p = 0;
+        int c = 0;
+        for(;;) {
+            int pEnd = pattern.indexOf('.', p);
+            if(pEnd < 0) {
+                pEnd = pattern.length();
+            }
+
+            if(pEnd - p == 1 && pattern.charAt(p) == '#' && pEnd == pattern.length()) {
+                return true;
+            }
+
+            if(c > channel.length()) {
+                return false;
+            }
+
+            int cEnd = channel.indexOf('.', c);
+            if(cEnd < 0) {
+                cEnd = channel.length();
+            }
+
+            boolean one = pEnd - p == 1 && pattern.charAt(p) == '*';
+            if(!one && (pEnd - p != cEnd - c || !pattern.regionMatches(p, channel, c, pEnd - p))) {
+                return false;
+            }
+
+            p = pEnd + 1;
+            c = cEnd + 1;
+            if(p > pattern.length()) {
+                return c > channel.length();
+            }
+        }
+    }
+
+    private static Node child(Node node, String seg) {
+        if(seg.equals(ONE)) {
+            if(node.one == null) {
+                node.one = new Node();
+            }
+            return node.one;
+        }
+
+        Node next = node.children.get(seg);
+        if(next == null) {
+            next = new Node();
+            node.children.put(seg, next);
+        }
+        return next;
+    }
+
+    /**
+     * Splits a channel name or pattern into its segments.
+     * @param name Channel name or pattern.
+     * @return Segments.
+     */
+    static String[] split(String name) {
+        ArrayList<String> segs = new ArrayList<>();
+        int from = 0;
+        for(int i = name.indexOf('.'); i >= 0; i = name.indexOf('.', from)) {
+            segs.add(name.substring(from, i));
+            from = i + 1;
+        }
+        segs.add(name.substring(from));
+        return segs.toArray(new String[0]);
+    }
+}
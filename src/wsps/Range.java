@@ -7,6 +7,8 @@ public enum Range {
 
     protected byte value;
 
+    private static final Range[] byValue = Range.values();
+
     /**
      * Defines data is published to server or server and clients.
      * @param range Range value (ClientOnly 0, ServerOnly 1, All 2)
@@ -16,7 +18,7 @@ public enum Range {
     }
 
     public static Range fromByte(byte value) {
-        for (Range rng : Range.values()) {
+        for (Range rng : byValue) {
             if (rng.value == value) {
                 return rng;
             }
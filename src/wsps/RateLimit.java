@@ -0,0 +1,88 @@
+package wsps;
+
+/**
+ * Token bucket limit: allows a burst of operations, refilled at a steady rate.
+ * The limit itself is immutable and shared, every limited party has its own bucket.
+ */
+public class RateLimit {
+    protected final double perSecond;
+    protected final int burst;
+
+    /**
+     * Initializes a new rate limit.
+     * @param perSecond Operations allowed per second on average.
+     * @param burst Operations allowed at once. (Bucket size)
+     */
+    public RateLimit(double perSecond, int burst) {
+        if(!(perSecond > 0) || burst < 1) {
+            throw new IllegalArgumentException("Rate must be positive and burst at least 1.");
+        }
+
+        this.perSecond = perSecond;
+        this.burst = burst;
+    }
+
+    /**
+     * Returns the operations allowed per second on average.
+     * @return Rate.
+     */
+    public double getPerSecond() {
+        return this.perSecond;
+    }
+
+    /**
+     * Returns the operations allowed at once.
+     * @return Burst.
+     */
+    public int getBurst() {
+        return this.burst;
+    }
+
+    /**
+     * Creates a new full bucket of this limit.
+     * @return Bucket.
+     */
+    public Bucket newBucket() {
+        return new Bucket(this);
+    }
+
+    /**
+     * Tokens left of one limited party.
+     */
+    public static class Bucket {
+        protected final RateLimit limit;
+        private double tokens;
+        private long last;
+
+        protected Bucket(RateLimit limit) {
+            this.limit = limit;
+            this.tokens = limit.burst;
+            this.last = System.nanoTime();
+        }
+
+        /**
+         * Returns the limit the bucket was created by.
+         * @return Rate limit.
+         */
+        public RateLimit getLimit() {
+            return this.limit;
+        }
+
+        /**
+         * Takes a token if there is one left.
+         * @return FALSE if the limit is exceeded.
+         */
+        public synchronized boolean tryAcquire() {
+            long now = System.nanoTime();
+            double t = Math.min(this.limit.burst, this.tokens + (now - this.last) * this.limit.perSecond / 1e9);
+            this.last = now;
+            if(t < 1) {
+                this.tokens = t;
+                return false;
+            }
+
+            this.tokens = t - 1;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package wsps;
+
+import java.util.ArrayList;
+
+/**
+ * Ring of the most recent events of a channel, so reconnecting clients can resume after the last sequence number
+ * they received. (Guarded by the channel monitor)
+ */
+public class ReplayBuffer {
+    private final Event[] events;
+    private long last = 0;
+
+    /**
+     * Initializes a new replay buffer.
+     * @param capacity Amount of events kept.
+     * @param last Sequence number of the last event published before. (Sequence numbers continue after it)
+     */
+    public ReplayBuffer(int capacity, long last) {
+        if(capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive.");
+        }
+
+        this.events = new Event[capacity];
+        this.last = last;
+    }
+
+    /**
+     * Returns the amount of events kept.
+     * @return Capacity.
+     */
+    public int capacity() {
+        return this.events.length;
+    }
+
+    /**
+     * Returns the sequence number of the last added event.
+     * @return Sequence number, 0 if none was published yet.
+     */
+    public long getLastSequence() {
+        return this.last;
+    }
+
+    /**
+     * Assigns the next sequence number to an event and adds it, replacing the oldest event if full.
+     * @param event Published event.
+     * @return Sequence number.
+     */
+    public long add(Event event) {
+        long seq = ++this.last;
+        event.seq = seq;
+        this.events[(int)(seq % this.events.length)] = event;
+        return seq;
+    }
+
+    /**
+     * Returns the events published after a sequence number.
+     * @param seq Sequence number of the last event received.
+     * @return Events in order or null if some of them are not kept anymore. (Or the number is unknown)
+     */
+    public ArrayList<Event> since(long seq) {
+        if(seq < 0 || seq > this.last || this.last - seq > this.events.length) {
+            return null;
+        }
+
+        ArrayList<Event> lst = new ArrayList<>((int)(this.last - seq));
+        for(long s = seq + 1; s <= this.last; s++) {
+            Event e = this.events[(int)(s % this.events.length)];
+            if(e == null) {
+                return null;
+            }
+            lst.add(e);
+        }
+
+        return lst;
+    }
+}
@@ -0,0 +1,154 @@
+package wsps;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Memory bound of the retained values of all channels. (See Channel.setRetaining)
+ * Keeps the estimated size of every retained value in access order and clears the least recently
+ * published or delivered values as soon as the sum exceeds the budget.
+ * Channels call it holding their monitor, the cache never locks a channel in return.
+ */
+public class RetainedCache {
+    public static final long DEFAULT_BUDGET = 64L * 1024 * 1024;
+
+    /**
+     * Fixed costs of a retained value besides its network string. (Event, Frame, Data and map entry)
+     */
+    private static final int OVERHEAD = 160;
+
+    private static class Entry {
+        final Event event;
+        final long size;
+
+        Entry(Event event, long size) {
+            this.event = event;
+            this.size = size;
+        }
+    }
+
+    private final LinkedHashMap<Channel, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private long budget;
+    private long used = 0;
+    private long evicted = 0;
+
+    /**
+     * Initializes a new cache bound with the default budget.
+     */
+    public RetainedCache() {
+        this(DEFAULT_BUDGET);
+    }
+
+    /**
+     * Initializes a new cache bound.
+     * @param budget Maximum estimated bytes of all retained values.
+     */
+    public RetainedCache(long budget) {
+        if(budget < 0) {
+            throw new IllegalArgumentException("Budget must not be negative.");
+        }
+
+        this.budget = budget;
+    }
+
+    /**
+     * Returns the estimated memory a retained event takes.
+     * @param ch Channel the event was published at.
+     * @param event Retained event.
+     * @return Estimated bytes.
+     */
+    static long sizeOf(Channel ch, Event event) {
+        //The network string holds the data and the channel name, the Data keeps its own copy.
+        long chars = event.getFrame(ch.name).getText().length();
+        return OVERHEAD + chars * 4;
+    }
+
+    /**
+     * Accounts a new retained value of a channel and evicts the least recently used ones over budget.
+     * @param ch Channel holding the value.
+     * @param event Retained event.
+     * @param size Estimated bytes of the value.
+     */
+    synchronized void put(Channel ch, Event event, long size) {
+        Entry old = this.entries.put(ch, new Entry(event, size));
+        this.used += size - (old != null ? old.size : 0);
+        this.evict();
+    }
+
+    /**
+     * Marks the retained value of a channel as recently used.
+     * @param ch Channel holding the value.
+     */
+    synchronized void touch(Channel ch) {
+        this.entries.get(ch);
+    }
+
+    /**
+     * Stops accounting the retained value of a channel.
+     * @param ch Channel not holding a value anymore.
+     */
+    synchronized void remove(Channel ch) {
+        Entry old = this.entries.remove(ch);
+        if(old != null) {
+            this.used -= old.size;
+        }
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<Channel, Entry>> it = this.entries.entrySet().iterator();
+        while(this.used > this.budget && it.hasNext()) {
+            Map.Entry<Channel, Entry> e = it.next();
+            it.remove();
+            this.used -= e.getValue().size;
+            this.evicted++;
+            //Only clears the slot if no newer value was retained in between. (Never blocks on the channel)
+            e.getKey().evictRetained(e.getValue().event);
+        }
+    }
+
+    /**
+     * Returns the maximum estimated bytes of all retained values.
+     * @return Budget in bytes.
+     */
+    public synchronized long getBudget() {
+        return this.budget;
+    }
+
+    /**
+     * Sets the maximum estimated bytes of all retained values. (Evicts immediately if lowered)
+     * @param budget Budget in bytes, 0 to retain nothing.
+     */
+    public synchronized void setBudget(long budget) {
+        if(budget < 0) {
+            throw new IllegalArgumentException("Budget must not be negative.");
+        }
+
+        this.budget = budget;
+        this.evict();
+    }
+
+    /**
+     * Returns the estimated bytes of all retained values.
+     * @return Used bytes.
+     */
+    public synchronized long getUsed() {
+        return this.used;
+    }
+
+    /**
+     * Returns the amount of channels holding a retained value.
+     * @return Amount of retained values.
+     */
+    public synchronized int size() {
+        return this.entries.size();
+    }
+
+    /**
+     * Returns how many retained values were evicted to stay in budget.
+     * @return Amount of evictions.
+     */
+    public synchronized long getEvictedCount() {
+        return this.evicted;
+    }
+}
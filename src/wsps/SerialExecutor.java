@@ -0,0 +1,126 @@
+package wsps;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
+
+/**
+ * Runs tasks one after another in submission order on an underlying executor.
+ * Holds no thread while idle, so there can be one per subscriber and channel.
+ */
+public class SerialExecutor implements Executor {
+    protected final Executor executor;
+    protected final Consumer<SerialExecutor> onIdle;
+    private final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+    private boolean running = false;
+    private boolean retired = false;
+
+    /**
+     * Initializes a new serial executor.
+     * @param executor Executor running the tasks.
+     */
+    public SerialExecutor(Executor executor) {
+        this(executor, null);
+    }
+
+    /**
+     * Initializes a new serial executor.
+     * @param executor Executor running the tasks.
+     * @param onIdle Called after the last pending task ran or null.
+     */
+    public SerialExecutor(Executor executor, Consumer<SerialExecutor> onIdle) {
+        this.executor = executor;
+        this.onIdle = onIdle;
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        if(!this.offer(task)) {
+            throw new RejectedExecutionException("Serial executor is retired.");
+        }
+    }
+
+    /**
+     * Queues a task unless the executor is retired.
+     * @param task Task to run.
+     * @return FALSE if retired, the task was not queued.
+     */
+    public boolean offer(Runnable task) {
+        synchronized (this) {
+            if(retired) {
+                return false;
+            }
+
+            tasks.add(task);
+            if(running) {
+                return true;
+            }
+            running = true;
+        }
+
+        executor.execute(this::drain);
+        return true;
+    }
+
+    /**
+     * Stops accepting tasks if no task is pending or running, so a replacing executor can't run alongside.
+     * @return TRUE if retired.
+     */
+    public synchronized boolean retireIfIdle() {
+        if(!running && tasks.isEmpty()) {
+            retired = true;
+        }
+
+        return retired;
+    }
+
+    /**
+     * Returns the amount of tasks waiting to run.
+     * @return Pending tasks.
+     */
+    public synchronized int size() {
+        return tasks.size();
+    }
+
+    private void drain() {
+        boolean done = false;
+        try {
+            for(;;) {
+                Runnable task;
+                synchronized (this) {
+                    task = tasks.poll();
+                    if(task == null) {
+                        running = false;
+                        done = true;
+                        break;
+                    }
+                }
+
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    Thread t = Thread.currentThread();
+                    t.getUncaughtExceptionHandler().uncaughtException(t, e);
+                }
+            }
+        } finally {
+            if(!done) {
+                //A task threw an Error, the remaining tasks continue on a new drain.
+                boolean pending;
+                synchronized (this) {
+                    pending = !tasks.isEmpty();
+                    running = pending;
+                }
+
+                if(pending) {
+                    executor.execute(this::drain);
+                }
+            }
+        }
+
+        if(onIdle != null) {
+            onIdle.accept(this);
+        }
+    }
+}
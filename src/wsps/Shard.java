@@ -0,0 +1,58 @@
+package wsps;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Single-threaded event loop owning a part of the channels. (See Manager.setShardCount)
+ * All subscriber changes and publishes of a channel run on the loop of its shard,
+ * so they are applied in order without contending with other shards.
+ */
+public class Shard implements Executor {
+    protected final int index;
+    private final ExecutorService loop;
+    private volatile Thread thread = null;
+
+    /**
+     * Initializes a new shard and starts its event loop thread.
+     * @param index Index of the shard.
+     */
+    public Shard(int index) {
+        this.index = index;
+        this.loop = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "wsps-shard-" + index);
+            t.setDaemon(true);
+            this.thread = t;
+            return t;
+        });
+    }
+
+    /**
+     * Returns the index of the shard.
+     * @return Shard index.
+     */
+    public int getIndex() {
+        return this.index;
+    }
+
+    /**
+     * Runs a task on the event loop. Tasks submitted from the loop itself run inline.
+     * @param task Task to run.
+     */
+    @Override
+    public void execute(Runnable task) {
+        if(Thread.currentThread() == this.thread) {
+            task.run();
+        } else {
+            this.loop.execute(task);
+        }
+    }
+
+    /**
+     * Stops the event loop after the submitted tasks are done.
+     */
+    public void shutdown() {
+        this.loop.shutdown();
+    }
+}
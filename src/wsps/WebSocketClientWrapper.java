@@ -1,5 +1,7 @@
 package wsps;
 
+import java.nio.ByteBuffer;
+
 public interface WebSocketClientWrapper {
     /**
      * Send message through ws-client handle to client.
@@ -7,6 +9,39 @@ public interface WebSocketClientWrapper {
      */
     public void send(String msg);
 
+    /**
+     * Send a shared message through ws-client handle to client.
+     * Override to write the pre-encoded bytes of the frame (Frame.getBytes()) as text message,
+     * so the message is UTF-8 encoded only once for all clients.
+     * @param frame Message to be sent to client.
+     */
+    public default void send(Frame frame) {
+        this.send(frame.getText());
+    }
+
+    /**
+     * Returns whether binary messages can be sent through the ws-client handle.
+     * @return TRUE if send(ByteBuffer) is implemented.
+     */
+    public default boolean supportsBinary() {
+        return false;
+    }
+
+    /**
+     * Send binary message through ws-client handle to client.
+     * (Only called after the client negotiated the binary protocol and supportsBinary returned TRUE)
+     * @param msg Message to be sent to client. The buffer is not reused and may be kept.
+     */
+    public default void send(ByteBuffer msg) {
+        throw new UnsupportedOperationException("Binary messages are not supported.");
+    }
+
+    /**
+     * Close the connection of the ws-client handle. (Called if the client does not keep up with the sent messages)
+     */
+    public default void close() {
+    }
+
     /**
      * Returns the ws-client handle object.
      * @return Handle object.